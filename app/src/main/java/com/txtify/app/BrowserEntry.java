@@ -0,0 +1,101 @@
+package com.txtify.app;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import java.io.File;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Comparator;
+
+/**
+ * One row of the in-app file browser: a file or folder with its type, size and modification
+ * time read once, in a single stat call, when the folder is listed.
+ *
+ * The browser sorts and draws from these fields only, so nothing touches the filesystem on the
+ * UI thread after the listing is done. The name's collation key is built at the same time, so a
+ * comparison while sorting is a byte compare rather than a locale-aware string walk.
+ */
+public class BrowserEntry {
+
+    /** Folders first, then by name in the user's locale. */
+    public static final Comparator<BrowserEntry> DISPLAY_ORDER = new Comparator<BrowserEntry>() {
+		@Override
+		public int compare(BrowserEntry e1, BrowserEntry e2) {
+			if (e1.directory != e2.directory) {
+				return e1.directory ? -1 : 1;
+			}
+			return compareKeys(e1.sortKey, e2.sortKey);
+		}
+	};
+
+    private final File file;
+    private final String name;
+    private final CollationKey sortKey;
+    private final boolean directory;
+    private final long size;
+    private final long lastModified;
+
+    BrowserEntry(File file, CollationKey sortKey, boolean directory, long size, long lastModified) {
+        this.file = file;
+        this.name = sortKey.getSourceString();
+        this.sortKey = sortKey;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * A collator for building sort keys. Collators are not thread-safe, so each listing gets
+     * its own.
+     */
+    public static Collator newCollator() {
+        Collator collator = Collator.getInstance();
+        // Case and accents only break ties between otherwise equal names.
+        collator.setStrength(Collator.TERTIARY);
+        return collator;
+    }
+
+    /** Key order, with names the collator sees as equal kept apart so the order is total. */
+    public static int compareKeys(CollationKey k1, CollationKey k2) {
+        int result = k1.compareTo(k2);
+        return (result != 0) ? result : k1.getSourceString().compareTo(k2.getSourceString());
+    }
+
+    /**
+     * Reads the entry whose name {@code sortKey} was built from, in {@code directory}. Call off
+     * the UI thread.
+     */
+    public static BrowserEntry stat(File directory, CollationKey sortKey) {
+        File file = new File(directory, sortKey.getSourceString());
+        try {
+            // Follows links, like File.isDirectory() does.
+            StructStat stat = Os.stat(file.getPath());
+            return new BrowserEntry(file, sortKey, OsConstants.S_ISDIR(stat.st_mode), stat.st_size, stat.st_mtime * 1000L);
+        } catch (ErrnoException e) {
+            // A broken link, or deleted since the folder was read; shown as an empty file.
+            return new BrowserEntry(file, sortKey, false, 0, 0);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
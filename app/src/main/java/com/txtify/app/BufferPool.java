@@ -0,0 +1,44 @@
+package com.txtify.app;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of fixed-size byte buffers shared by the conversion engine, so converting
+ * thousands of files reuses a handful of buffers instead of allocating one per file.
+ */
+public final class BufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_POOLED = 8;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public synchronized byte[] acquire() {
+        byte[] buffer = freeBuffers.pollFirst();
+        return (buffer != null) ? buffer : new byte[bufferSize];
+    }
+
+    public synchronized void release(byte[] buffer) {
+        // Buffers of a foreign size are simply dropped; the pool never grows past maxPooled.
+        if (buffer != null && buffer.length == bufferSize && freeBuffers.size() < maxPooled) {
+            freeBuffers.addFirst(buffer);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.txtify.app;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Concatenates converted files into one text bundle: each file gets a header line with its
+ * position and path, followed by its text and a blank separator line.
+ *
+ * The optional table of contents lists the byte offset of every header. Offsets are only known
+ * once a file has been written, so the table goes at the end, and the last line of the bundle
+ * gives the table's own offset. When the bundle is split by a {@link ChunkedOutputStream}, each
+ * file ends at a preferred split point, and the table and the line pointing at it give part
+ * numbers and offsets within each part.
+ */
+public class BundleWriter implements OutputTarget {
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final CountingOutputStream out;
+    private final ChunkedOutputStream chunks;
+    private final boolean tableOfContents;
+    private final int expectedFiles;
+    private final List<String> tocPaths = new ArrayList<>();
+    private final List<Long> tocOffsets = new ArrayList<>();
+    private final List<Integer> tocParts = new ArrayList<>();
+    private boolean inFile;
+
+    /**
+     * @param expectedFiles  total number of files, shown in each header as "i/N"; 0 if unknown
+     */
+    public BundleWriter(OutputStream out, boolean tableOfContents, int expectedFiles) {
+        // A chunked destination buffers each part itself and has to see file ends unbuffered.
+        this.chunks = (out instanceof ChunkedOutputStream) ? (ChunkedOutputStream) out : null;
+        this.out = new CountingOutputStream((chunks != null) ? out : new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE));
+        this.tableOfContents = tableOfContents;
+        this.expectedFiles = expectedFiles;
+    }
+
+    /** Writes the header for the next file and returns the stream its text goes to. */
+    @Override
+    public OutputStream beginFile(String path) throws IOException {
+        if (inFile) {
+            endFile();
+        }
+        tocPaths.add(path);
+        if (chunks != null) {
+            tocParts.add(chunks.getPartNumber());
+            tocOffsets.add(chunks.getPartOffset());
+        } else {
+            tocOffsets.add(out.count);
+        }
+
+        int number = tocPaths.size();
+        String position = (expectedFiles > 0) ? number + "/" + expectedFiles : String.valueOf(number);
+        writeLine("===== " + position + ": " + path + " =====");
+        inFile = true;
+        return new FileOutputView();
+    }
+
+    /** Ends the current file with a blank separator line. */
+    @Override
+    public void endFile() throws IOException {
+        if (!inFile) {
+            return;
+        }
+        inFile = false;
+        writeLine("");
+        if (chunks != null) {
+            chunks.markFileBoundary();
+        }
+    }
+
+    public int getFileCount() {
+        return tocPaths.size();
+    }
+
+    /** Writes the table of contents, if enabled, and closes the underlying stream. */
+    @Override
+    public void close() throws IOException {
+        try {
+            endFile();
+            if (tableOfContents && !tocPaths.isEmpty()) {
+                // In a chunked bundle the table can itself run over into later parts, so the
+                // pointer names the part it starts in.
+                int tocPart = (chunks != null) ? chunks.getPartNumber() : 0;
+                long tocOffset = (chunks != null) ? chunks.getPartOffset() : out.count;
+                writeLine("===== Table of contents (" + tocPaths.size() + " files) =====");
+                for (int i = 0; i < tocPaths.size(); i++) {
+                    if (chunks != null) {
+                        writeLine(String.format(Locale.US, "part%03d  %012d  %s", tocParts.get(i), tocOffsets.get(i), tocPaths.get(i)));
+                    } else {
+                        writeLine(String.format(Locale.US, "%012d  %s", tocOffsets.get(i), tocPaths.get(i)));
+                    }
+                }
+                if (chunks != null) {
+                    writeLine(String.format(Locale.US, "===== Table of contents at part%03d byte %d =====", tocPart, tocOffset));
+                } else {
+                    writeLine(String.format(Locale.US, "===== Table of contents at byte %d =====", tocOffset));
+                }
+            }
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    // What the conversion engine writes one file into. Its per-file flush and close are
+    // swallowed so the bundle is only pushed to the provider when the buffer fills.
+    private class FileOutputView extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
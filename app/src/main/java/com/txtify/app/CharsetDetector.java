@@ -0,0 +1,217 @@
+package com.txtify.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Guesses the charset of a text source from a bounded prefix, so legacy files can be transcoded
+ * to UTF-8 on the fly instead of being read with the platform default.
+ *
+ * In order: a byte-order mark, the NUL pattern of BOM-less UTF-16, strict UTF-8 validity, and
+ * finally a Shift_JIS versus windows-1252 score for the remaining 8-bit text.
+ */
+public final class CharsetDetector {
+
+    public static final int SAMPLE_SIZE = ContentSniffer.SAMPLE_SIZE;
+
+    private static final Charset UTF_32BE = lookup("UTF-32BE");
+    private static final Charset UTF_32LE = lookup("UTF-32LE");
+    private static final Charset SHIFT_JIS = lookup("Shift_JIS");
+    private static final Charset WINDOWS_1252 = lookup("windows-1252");
+
+    private CharsetDetector() {
+    }
+
+    /**
+     * Detects the charset of a markable stream and leaves the stream positioned just after its
+     * byte-order mark, if it has one, so the mark does not end up in the UTF-8 output.
+     */
+    public static Charset detect(InputStream in) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int length = ContentSniffer.readSample(in, sample);
+
+        int bomLength = byteOrderMarkLength(sample, length);
+        if (bomLength > 0) {
+            Charset charset = fromByteOrderMark(sample, length);
+            long skipped = 0;
+            while (skipped < bomLength) {
+                long n = in.skip(bomLength - skipped);
+                if (n <= 0) break;
+                skipped += n;
+            }
+            return charset;
+        }
+        return detect(sample, length);
+    }
+
+    static Charset detect(byte[] sample, int length) {
+        Charset charset = fromByteOrderMark(sample, length);
+        if (charset != null) {
+            return charset;
+        }
+        charset = guessUtf16(sample, length);
+        if (charset != null) {
+            return charset;
+        }
+        if (isValidUtf8(sample, length)) {
+            return StandardCharsets.UTF_8;
+        }
+        if (SHIFT_JIS != null && looksLikeShiftJis(sample, length)) {
+            return SHIFT_JIS;
+        }
+        return (WINDOWS_1252 != null) ? WINDOWS_1252 : StandardCharsets.ISO_8859_1;
+    }
+
+    /** The charset announced by a byte-order mark, or null if there is none. */
+    static Charset fromByteOrderMark(byte[] b, int length) {
+        // The UTF-32 marks have to be tested first; FF FE 00 00 starts with the UTF-16LE mark.
+        if (length >= 4 && b[0] == 0 && b[1] == 0 && (b[2] & 0xFF) == 0xFE && (b[3] & 0xFF) == 0xFF) {
+            return (UTF_32BE != null) ? UTF_32BE : StandardCharsets.UTF_16BE;
+        }
+        if (length >= 4 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xFE && b[2] == 0 && b[3] == 0) {
+            return (UTF_32LE != null) ? UTF_32LE : StandardCharsets.UTF_16LE;
+        }
+        if (length >= 3 && (b[0] & 0xFF) == 0xEF && (b[1] & 0xFF) == 0xBB && (b[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2 && (b[0] & 0xFF) == 0xFE && (b[1] & 0xFF) == 0xFF) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (length >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xFE) {
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    private static int byteOrderMarkLength(byte[] b, int length) {
+        Charset charset = fromByteOrderMark(b, length);
+        if (charset == null) {
+            return 0;
+        }
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            return 3;
+        }
+        return (charset.equals(UTF_32BE) || charset.equals(UTF_32LE)) ? 4 : 2;
+    }
+
+    /**
+     * Recognises BOM-less UTF-16 from mostly-Latin text, where every other byte is NUL. Returns
+     * null when the NULs don't line up on one side.
+     */
+    static Charset guessUtf16(byte[] b, int length) {
+        int pairs = length / 2;
+        if (pairs < 2) {
+            return null;
+        }
+        int evenNuls = 0;
+        int oddNuls = 0;
+        for (int i = 0; i + 1 < length; i += 2) {
+            if (b[i] == 0) evenNuls++;
+            if (b[i + 1] == 0) oddNuls++;
+        }
+        // At least 40% of the code units are ASCII on one side, and almost none on the other.
+        if (oddNuls * 10 >= pairs * 4 && evenNuls * 20 <= pairs) {
+            return StandardCharsets.UTF_16LE;
+        }
+        if (evenNuls * 10 >= pairs * 4 && oddNuls * 20 <= pairs) {
+            return StandardCharsets.UTF_16BE;
+        }
+        return null;
+    }
+
+    static boolean isValidUtf8(byte[] b, int length) {
+        int i = 0;
+        while (i < length) {
+            if (b[i] >= 0) {
+                i++;
+                continue;
+            }
+            int sequenceLength = utf8SequenceLength(b, i, length);
+            if (sequenceLength < 0) {
+                return false;
+            }
+            if (sequenceLength == 0) {
+                return true; // Only cut off by the end of the sample.
+            }
+            i += sequenceLength;
+        }
+        return true;
+    }
+
+    /**
+     * Length of the well-formed UTF-8 sequence starting at {@code i}, 0 if it runs past the end
+     * of the sample, or -1 if it is malformed.
+     */
+    static int utf8SequenceLength(byte[] b, int i, int length) {
+        int lead = b[i] & 0xFF;
+        int sequenceLength;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            sequenceLength = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            sequenceLength = 3;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            sequenceLength = 4;
+        } else {
+            return -1;
+        }
+        for (int k = 1; k < sequenceLength; k++) {
+            if (i + k >= length) {
+                return 0;
+            }
+            if ((b[i + k] & 0xC0) != 0x80) {
+                return -1;
+            }
+        }
+        return sequenceLength;
+    }
+
+    /**
+     * Japanese text is runs of well-formed double-byte characters, while accented Latin text
+     * has isolated high bytes that rarely form valid lead/trail pairs, let alone runs of them.
+     */
+    static boolean looksLikeShiftJis(byte[] b, int length) {
+        int pairs = 0;
+        int pairsInRuns = 0;
+        int errors = 0;
+        boolean previousWasPair = false;
+        int i = 0;
+        while (i < length) {
+            int c = b[i] & 0xFF;
+            if (c < 0x80 || (c >= 0xA1 && c <= 0xDF)) {
+                // ASCII or half-width katakana.
+                previousWasPair = false;
+                i++;
+            } else if ((c >= 0x81 && c <= 0x9F) || (c >= 0xE0 && c <= 0xFC)) {
+                if (i + 1 >= length) {
+                    break;
+                }
+                int trail = b[i + 1] & 0xFF;
+                if (trail >= 0x40 && trail <= 0xFC && trail != 0x7F) {
+                    pairs++;
+                    if (previousWasPair) pairsInRuns++;
+                    previousWasPair = true;
+                    i += 2;
+                } else {
+                    errors++;
+                    previousWasPair = false;
+                    i++;
+                }
+            } else {
+                errors++;
+                previousWasPair = false;
+                i++;
+            }
+        }
+        return pairs > 0 && errors * 20 <= pairs && pairsInRuns * 2 >= pairs;
+    }
+
+    private static Charset lookup(String name) {
+        try {
+            return Charset.isSupported(name) ? Charset.forName(name) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.txtify.app;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Spreads one logical text stream over numbered parts, rolling over once a part reaches a byte
+ * or line threshold.
+ *
+ * Splits are placed as gently as possible: at a file boundary (see {@link #markFileBoundary()})
+ * once a part is three quarters full, otherwise at the first line end after the threshold, and
+ * only as a last resort in the middle of a line. Parts are opened lazily, so a stream that ends
+ * right after a rollover never leaves an empty part behind. Each part is written through one
+ * fixed buffer, so memory use does not depend on the input size.
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+    /** Creates the destination of each part; part numbers start at 1. */
+    public interface PartFactory {
+        OutputStream openPart(int partNumber) throws IOException;
+    }
+
+    private static final int PART_BUFFER_SIZE = 64 * 1024;
+    // How far past the byte threshold a line may run before it is cut anyway.
+    private static final int MAX_LINE_OVERRUN = 64 * 1024;
+
+    private final PartFactory partFactory;
+    private final long maxBytes;
+    private final long maxLines;
+
+    private OutputStream current;
+    private int partNumber = 1;
+    private long partBytes;
+    private long partLines;
+    private boolean splitPending;
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * @param maxBytes  byte threshold per part, or 0 for none
+     * @param maxLines  line threshold per part, or 0 for none
+     */
+    public ChunkedOutputStream(PartFactory partFactory, long maxBytes, long maxLines) {
+        this.partFactory = partFactory;
+        this.maxBytes = maxBytes;
+        this.maxLines = maxLines;
+    }
+
+    /** The part the next byte goes to. */
+    public int getPartNumber() {
+        return partNumber;
+    }
+
+    /** Offset of the next byte within its part. */
+    public long getPartOffset() {
+        return partBytes;
+    }
+
+    /**
+     * Tells the stream that a source file has just ended, which is the preferred place to
+     * start a new part.
+     */
+    public void markFileBoundary() throws IOException {
+        if (partBytes == 0) {
+            return;
+        }
+        boolean nearlyFull = (maxBytes > 0 && partBytes * 4 >= maxBytes * 3)
+            || (maxLines > 0 && partLines * 4 >= maxLines * 3);
+        if (splitPending || nearlyFull) {
+            rollOver();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = splitPending ? writeUntilLineEnd(b, off, len) : writeUntilThreshold(b, off, len);
+            off += count;
+            len -= count;
+        }
+    }
+
+    /** Flushes are not passed on; each part is flushed when it is closed. */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            OutputStream part = current;
+            current = null;
+            part.close();
+        }
+    }
+
+    // Writes up to the line or byte threshold and returns the number of bytes consumed. A line
+    // threshold always falls on a line end, so it rolls over at once; a byte threshold in the
+    // middle of a line leaves the split pending until the line ends.
+    private int writeUntilThreshold(byte[] b, int off, int len) throws IOException {
+        int count = len;
+        if (maxBytes > 0) {
+            count = (int) Math.min(count, Math.max(1, maxBytes - partBytes));
+        }
+        boolean limitHit = maxBytes > 0 && partBytes + count >= maxBytes;
+        if (maxLines > 0) {
+            long lines = partLines;
+            for (int i = 0; i < count; i++) {
+                if (b[off + i] == '\n' && ++lines >= maxLines) {
+                    count = i + 1;
+                    limitHit = true;
+                    break;
+                }
+            }
+        }
+        writeToPart(b, off, count);
+        if (limitHit) {
+            if (b[off + count - 1] == '\n') {
+                rollOver();
+            } else {
+                splitPending = true;
+            }
+        }
+        return count;
+    }
+
+    // Writes up to and including the next line end, or up to the overrun limit, and returns
+    // the number of bytes consumed.
+    private int writeUntilLineEnd(byte[] b, int off, int len) throws IOException {
+        long overrunLeft = Math.max(1, maxBytes + MAX_LINE_OVERRUN - partBytes);
+        int limit = (int) Math.min(len, overrunLeft);
+        for (int i = 0; i < limit; i++) {
+            if (b[off + i] == '\n') {
+                writeToPart(b, off, i + 1);
+                rollOver();
+                return i + 1;
+            }
+        }
+        writeToPart(b, off, limit);
+        if (limit == overrunLeft) {
+            rollOver();
+        }
+        return limit;
+    }
+
+    private void writeToPart(byte[] b, int off, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (current == null) {
+            current = new BufferedOutputStream(partFactory.openPart(partNumber), PART_BUFFER_SIZE);
+        }
+        current.write(b, off, count);
+        partBytes += count;
+        if (maxLines > 0) {
+            partLines += countLines(b, off, count);
+        }
+    }
+
+    private void rollOver() throws IOException {
+        close();
+        partNumber++;
+        partBytes = 0;
+        partLines = 0;
+        splitPending = false;
+    }
+
+    private static int countLines(byte[] b, int off, int len) {
+        int lines = 0;
+        for (int i = off; i < off + len; i++) {
+            if (b[i] == '\n') lines++;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,73 @@
+package com.txtify.app;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Classifies a stream as text or binary from its first few KB, before anything is written.
+ *
+ * A byte-order mark, or the NUL pattern of BOM-less UTF-16, means text. Otherwise a NUL byte
+ * or a high share of C0 control characters means binary. Bytes above 0x7F say nothing either
+ * way: legacy 8-bit text in Cyrillic, Greek or Hebrew is mostly such bytes and hardly ever valid
+ * UTF-8, so it is left to {@link CharsetDetector}. Compressed or machine data, on the other
+ * hand, has NULs and control bytes all over its first few KB.
+ */
+public final class ContentSniffer {
+
+    public static final int SAMPLE_SIZE = 8 * 1024;
+
+    private static final int MAX_CONTROL_PERCENT = 10;
+
+    private ContentSniffer() {
+    }
+
+    /** Wraps {@code in} so that {@link #isBinary(InputStream)} can peek at it. */
+    public static InputStream markable(InputStream in) {
+        return in.markSupported() ? in : new BufferedInputStream(in, SAMPLE_SIZE);
+    }
+
+    /**
+     * Looks at the start of a markable stream and rewinds it, so the caller can still read it
+     * from the beginning.
+     */
+    public static boolean isBinary(InputStream in) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        return isBinary(sample, readSample(in, sample));
+    }
+
+    /** Fills {@code sample} from the start of a markable stream, rewinds it and returns the length read. */
+    static int readSample(InputStream in, byte[] sample) throws IOException {
+        in.mark(sample.length);
+        int length = 0;
+        try {
+            int n;
+            while (length < sample.length && (n = in.read(sample, length, sample.length - length)) != -1) {
+                length += n;
+            }
+        } finally {
+            in.reset();
+        }
+        return length;
+    }
+
+    static boolean isBinary(byte[] sample, int length) {
+        if (length == 0
+            || CharsetDetector.fromByteOrderMark(sample, length) != null
+            || CharsetDetector.guessUtf16(sample, length) != null) {
+            return false;
+        }
+
+        int control = 0;
+        for (int i = 0; i < length; i++) {
+            int b = sample[i] & 0xFF;
+            if (b == 0) {
+                return true;
+            }
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != '\b' && b != 0x1B) {
+                control++;
+            }
+        }
+        return control * 100 > length * MAX_CONTROL_PERCENT;
+    }
+}
@@ -0,0 +1,180 @@
+package com.txtify.app;
+
+import android.util.Log;
+import androidx.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Progress log of a running job, so an interrupted batch resumes where it stopped instead of
+ * converting everything again.
+ *
+ * Every output file gets a "started" line once it has been created and a "done" line once its
+ * last byte is written; both are keyed by the item they belong to (a source URI, or an archive
+ * path). On resume, done items are skipped and outputs that were started but never
+ * finished are deleted before anything else runs. A "done" line can carry a detail for the caller
+ * to rebuild its own state from, such as the item's incremental manifest record, since a job
+ * interrupted half way never gets to save that. Lines are appended and flushed one at a time:
+ * a local write is far cheaper than the provider call it records, and a line lost in a buffer
+ * would leave a stray output behind.
+ */
+public class ConversionCheckpoint implements Closeable {
+
+    private static final String TAG = "ConversionCheckpoint";
+    private static final String STARTED = "S";
+    private static final String DONE = "D";
+    private static final String KEPT = "K";
+
+    private final File file;
+    private final Set<String> done = new HashSet<>();
+    // Key to the detail its "done" line carried, if any.
+    private final Map<String, String> doneDetails = new HashMap<>();
+    private final List<String> unfinishedOutputs = new ArrayList<>();
+    // Every output this job has created, in this attempt or an earlier one.
+    private final Set<String> outputs = new LinkedHashSet<>();
+    private Writer out;
+
+    private ConversionCheckpoint(File file) {
+        this.file = file;
+    }
+
+    /** Reads what an earlier attempt of the job got through, if there was one. */
+    public static ConversionCheckpoint open(File file) {
+        ConversionCheckpoint checkpoint = new ConversionCheckpoint(file);
+        if (file.isFile()) {
+            // Key to output name, for outputs started but not finished.
+            Map<String, String> unfinished = new LinkedHashMap<>();
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 3);
+                    if (STARTED.equals(fields[0]) && fields.length == 3) {
+                        unfinished.put(fields[1], fields[2]);
+                        checkpoint.outputs.add(fields[2]);
+                    } else if (KEPT.equals(fields[0]) && fields.length == 2) {
+                        checkpoint.outputs.remove(fields[1]);
+                    } else if (DONE.equals(fields[0]) && fields.length >= 2) {
+                        unfinished.remove(fields[1]);
+                        checkpoint.done.add(fields[1]);
+                        if (fields.length == 3) {
+                            checkpoint.doneDetails.put(fields[1], fields[2]);
+                        }
+                    }
+                    // A torn last line is simply ignored.
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read " + file.getName(), e);
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+            checkpoint.unfinishedOutputs.addAll(unfinished.values());
+        }
+        return checkpoint;
+    }
+
+    /** True if an earlier attempt already finished this item. */
+    public synchronized boolean isDone(String key) {
+        return done.contains(key);
+    }
+
+    /** The detail an earlier attempt recorded when it finished this item, or null. */
+    @Nullable
+    public synchronized String getDoneDetail(String key) {
+        return doneDetails.get(key);
+    }
+
+    public synchronized int getDoneCount() {
+        return done.size();
+    }
+
+    /** True if this job was interrupted before and is being resumed. */
+    public boolean isResumed() {
+        return getDoneCount() > 0 || !unfinishedOutputs.isEmpty();
+    }
+
+    /** Names of the outputs an earlier attempt left half-written; the caller deletes them. */
+    public List<String> getUnfinishedOutputs() {
+        return unfinishedOutputs;
+    }
+
+    /** Names of all outputs the job has created so far, for rolling a cancelled job back. */
+    public synchronized List<String> getOutputs() {
+        return new ArrayList<>(outputs);
+    }
+
+    public synchronized void started(String key, String outputName) {
+        outputs.add(outputName);
+        append(STARTED + "\t" + key + "\t" + outputName);
+    }
+
+    public synchronized void finished(String key) {
+        done.add(key);
+        append(DONE + "\t" + key);
+    }
+
+    /** Marks the item done along with a single-line detail, returned on resume. */
+    public synchronized void finished(String key, String detail) {
+        done.add(key);
+        doneDetails.put(key, detail);
+        append(DONE + "\t" + key + "\t" + detail);
+    }
+
+    /**
+     * Leaves a finished output out of any rollback, for one that replaced an output of an
+     * earlier job: its predecessor is gone, so deleting it would lose the file altogether.
+     */
+    public synchronized void kept(String outputName) {
+        outputs.remove(outputName);
+        append(KEPT + "\t" + outputName);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            out = null;
+        }
+    }
+
+    // A failed write only costs some repeated work on resume, so it is logged and ignored.
+    private void append(String line) {
+        try {
+            if (out == null) {
+                out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+            }
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.txtify.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streams a source into a UTF-8 text destination through a pooled buffer, so a file of any
+ * size is converted in constant memory. Charset transcoding and line-ending normalisation
+ * are applied as streaming filters between the copy loop and the destination.
+ */
+public class ConversionEngine {
+
+    private final BufferPool bufferPool;
+
+    public ConversionEngine() {
+        this(BufferPool.shared());
+    }
+
+    public ConversionEngine(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Copies {@code in} to {@code out}. Neither stream is closed.
+     *
+     * @param sourceCharset         charset of the source bytes; UTF-8 sources are copied as-is
+     * @param normalizeLineEndings  rewrite CR/CRLF to LF and terminate the last line
+     * @return the number of bytes read from the source
+     */
+    public long convert(InputStream in, OutputStream out, Charset sourceCharset, boolean normalizeLineEndings) throws IOException {
+        LineEndingOutputStream lineFilter = null;
+        TranscodingOutputStream transcoder = null;
+        OutputStream sink = out;
+
+        if (normalizeLineEndings) {
+            lineFilter = new LineEndingOutputStream(sink);
+            sink = lineFilter;
+        }
+        if (sourceCharset != null && !StandardCharsets.UTF_8.equals(sourceCharset)) {
+            transcoder = new TranscodingOutputStream(sink, sourceCharset);
+            sink = transcoder;
+        }
+
+        long total = 0;
+        byte[] buffer = bufferPool.acquire();
+        try {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                sink.write(buffer, 0, len);
+                total += len;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+
+        if (transcoder != null) {
+            transcoder.finish();
+        }
+        if (lineFilter != null) {
+            lineFilter.finish();
+        }
+        out.flush();
+        return total;
+    }
+
+    /**
+     * Writes {@code in} to {@code out} as a classic hex dump: an offset, sixteen hex bytes and
+     * their printable ASCII per line. Used for binary sources. Neither stream is closed.
+     *
+     * @return the number of bytes read from the source
+     */
+    public long hexDump(InputStream in, OutputStream out) throws IOException {
+        byte[] row = new byte[HEX_BYTES_PER_LINE];
+        byte[] line = new byte[HEX_LINE_LENGTH];
+        byte[] buffer = bufferPool.acquire();
+        long total = 0;
+        try {
+            int pending = 0;
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                int i = 0;
+                while (i < len) {
+                    int count = Math.min(HEX_BYTES_PER_LINE - pending, len - i);
+                    System.arraycopy(buffer, i, row, pending, count);
+                    pending += count;
+                    i += count;
+                    if (pending == HEX_BYTES_PER_LINE) {
+                        out.write(line, 0, formatHexLine(line, total, row, pending));
+                        total += pending;
+                        pending = 0;
+                    }
+                }
+            }
+            if (pending > 0) {
+                out.write(line, 0, formatHexLine(line, total, row, pending));
+                total += pending;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        out.flush();
+        return total;
+    }
+
+    // Line layout: "00000000  00 11 22 33 44 55 66 77  88 99 aa bb cc dd ee ff  |................|\n"
+    private static final int HEX_BYTES_PER_LINE = 16;
+    private static final int HEX_COLUMN = 10;
+    private static final int ASCII_COLUMN = HEX_COLUMN + HEX_BYTES_PER_LINE * 3 + 2;
+    private static final int HEX_LINE_LENGTH = ASCII_COLUMN + HEX_BYTES_PER_LINE + 3;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // Renders one line into {@code line} and returns its length.
+    private static int formatHexLine(byte[] line, long offset, byte[] row, int count) {
+        Arrays.fill(line, 0, ASCII_COLUMN, (byte) ' ');
+        for (int k = 7; k >= 0; k--) {
+            line[k] = HEX_DIGITS[(int) (offset & 0xF)];
+            offset >>>= 4;
+        }
+        for (int k = 0; k < count; k++) {
+            int column = HEX_COLUMN + k * 3 + (k >= 8 ? 1 : 0);
+            line[column] = HEX_DIGITS[(row[k] >> 4) & 0xF];
+            line[column + 1] = HEX_DIGITS[row[k] & 0xF];
+            line[ASCII_COLUMN + 1 + k] = (row[k] >= 0x20 && row[k] < 0x7F) ? row[k] : (byte) '.';
+        }
+        line[ASCII_COLUMN] = '|';
+        line[ASCII_COLUMN + 1 + count] = '|';
+        line[ASCII_COLUMN + 2 + count] = '\n';
+        return ASCII_COLUMN + 3 + count;
+    }
+}
@@ -0,0 +1,226 @@
+package com.txtify.app;
+
+import android.content.ContentResolver;
+import androidx.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Record of what an incremental conversion last wrote into a project folder: for every source
+ * URI its size, modification time, content hash and the name of its output file.
+ *
+ * Stored as tab-separated lines in {@link #FILE_NAME} inside the project folder. A source whose
+ * size and time still match is skipped without being opened; one whose time changed is hashed
+ * first and only converted again if its content actually changed.
+ */
+public class ConversionManifest {
+
+    public static final String FILE_NAME = ".txtify-manifest.txt";
+
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final String HEADER = "# Txtify manifest v1: uri, size, lastModified, sha1, output";
+
+    /** What the manifest knows about one source. */
+    public static class Record {
+        private final String uri;
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+        private final String outputName;
+
+        public Record(String uri, long size, long lastModified, String hash, String outputName) {
+            this.uri = uri;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.outputName = outputName;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String getOutputName() {
+            return outputName;
+        }
+
+        /** True if size and time are both known and unchanged, so the source needn't be read. */
+        public boolean matches(UriMetadata metadata) {
+            return metadata.getSize() >= 0 && metadata.getLastModified() > 0
+                && metadata.getSize() == size && metadata.getLastModified() == lastModified;
+        }
+
+        public Record withLastModified(long newLastModified) {
+            return new Record(uri, size, newLastModified, hash, outputName);
+        }
+
+        /** The record as one manifest line, without the line break. */
+        public String toLine() {
+            return uri + "\t" + size + "\t" + lastModified + "\t" + hash + "\t" + outputName;
+        }
+
+        /** Parses a line written by {@link #toLine()}; null if it is damaged. */
+        @Nullable
+        public static Record parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 5) {
+                return null;
+            }
+            try {
+                return new Record(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], fields[4]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final Map<String, Record> records = new HashMap<>();
+
+    /**
+     * Reads the manifest of a project folder. A missing or unreadable manifest gives an empty
+     * one, which simply makes the next run convert everything.
+     */
+    public static ConversionManifest load(ContentResolver resolver, DirectoryNameIndex dirIndex) {
+        ConversionManifest manifest = new ConversionManifest();
+        DocumentHandle file = dirIndex.get(FILE_NAME);
+        if (file == null) {
+            return manifest;
+        }
+
+        BufferedReader reader = null;
+        try {
+            InputStream is = resolver.openInputStream(file.getUri());
+            if (is == null) {
+                return manifest;
+            }
+            reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record = line.startsWith("#") ? null : Record.parse(line);
+                if (record != null) {
+                    manifest.records.put(record.getUri(), record);
+                }
+            }
+        } catch (Exception e) {
+            // Keep whatever was read before the failure.
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return manifest;
+    }
+
+    @Nullable
+    public synchronized Record get(String uri) {
+        return records.get(uri);
+    }
+
+    public synchronized void put(Record record) {
+        records.put(record.getUri(), record);
+    }
+
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /** Writes the manifest back, replacing the previous one in place. */
+    public boolean save(DocumentStorage storage, DirectoryNameIndex dirIndex) {
+        DocumentHandle file = dirIndex.get(FILE_NAME);
+        if (file == null) {
+            file = storage.createDocument(dirIndex.getDirectory(), "text/plain", FILE_NAME);
+            if (file == null) {
+                return false;
+            }
+            dirIndex.put(file);
+        }
+
+        Writer writer = null;
+        try {
+            OutputStream os = storage.getContentResolver().openOutputStream(file.getUri(), "wt");
+            if (os == null) {
+                return false;
+            }
+            writer = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+            writer.write(HEADER);
+            writer.write('\n');
+            synchronized (this) {
+                for (Record record : records.values()) {
+                    writer.write(record.toLine());
+                    writer.write('\n');
+                }
+            }
+            writer.flush();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Hashes a whole stream through a pooled buffer. The stream is not closed. */
+    public static String hash(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        BufferPool pool = BufferPool.shared();
+        byte[] buffer = pool.acquire();
+        try {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, len);
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,235 @@
+package com.txtify.app;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of a running job: files and bytes done, the file being converted, and the rate
+ * and time left derived from them. Also the job's cancel flag.
+ *
+ * The conversion threads only bump atomic counters (once per read buffer and once per file) and
+ * never call into the UI. The UI reads a snapshot on its own timer, so the update rate, and the
+ * cost of formatting and posting notifications, are independent of how fast files go by.
+ *
+ * Cancellation is cooperative and checked at the same points: a tracked source stops reading
+ * with an {@link InterruptedIOException} at the next buffer, which fails the current file like
+ * any read error, and items not started yet are skipped.
+ */
+public class ConversionProgress {
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong(-1);
+    private volatile int totalFiles;
+    private volatile String currentFile;
+    private volatile boolean cancelled;
+
+    /** Asks the job to stop; safe to call from any thread. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @param files  number of items the job will go through
+     * @param bytes  their total size, or -1 if some sizes are unknown
+     */
+    public void setTotals(int files, long bytes) {
+        totalFiles = files;
+        totalBytes.set(bytes);
+    }
+
+    public void startFile(String name) {
+        currentFile = name;
+    }
+
+    /**
+     * Takes a file that won't be read (already converted, unchanged, or skipped as binary) out
+     * of the byte total, so the rate only reflects work actually done.
+     */
+    public void skipBytes(long size) {
+        if (size > 0 && totalBytes.get() >= 0) {
+            totalBytes.addAndGet(-size);
+        }
+    }
+
+    /** Wraps a source so every byte read from it is counted. */
+    public TrackedInputStream track(InputStream in) {
+        return new TrackedInputStream(in);
+    }
+
+    /**
+     * Wraps a scheduler job so every finished item, converted or not, is counted, and items
+     * are skipped once the job is cancelled.
+     */
+    public ConversionScheduler.Job countFiles(final ConversionScheduler.Job job) {
+        return new ConversionScheduler.Job() {
+				@Override
+				public long run(int index, ConversionScheduler.Turn turn) {
+					if (cancelled) {
+						return -1;
+					}
+					try {
+						return job.run(index, turn);
+					} finally {
+						filesDone.incrementAndGet();
+					}
+				}
+			};
+    }
+
+    public void fileDone() {
+        filesDone.incrementAndGet();
+    }
+
+    public int getFilesDone() {
+        return filesDone.get();
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    public long getBytesDone() {
+        return bytesDone.get();
+    }
+
+    public String getCurrentFile() {
+        return currentFile;
+    }
+
+    /** Completion in percent, by bytes when the total is known and by files otherwise. */
+    public int getPercent() {
+        long total = totalBytes.get();
+        if (total > 0) {
+            return (int) Math.min(100, bytesDone.get() * 100 / total);
+        }
+        int files = totalFiles;
+        return (files > 0) ? Math.min(100, filesDone.get() * 100 / files) : 0;
+    }
+
+    public double getMegabytesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return (seconds > 0) ? (bytesDone.get() / (1024.0 * 1024.0)) / seconds : 0;
+    }
+
+    /**
+     * Seconds left at the average rate so far, or -1 before there is anything to go by.
+     * Bytes are the better measure, as file sizes vary widely; files are the fallback.
+     */
+    public long getSecondsLeft() {
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        long total = totalBytes.get();
+        long bytes = bytesDone.get();
+        if (total > 0 && bytes > 0) {
+            return (long) (elapsed * Math.max(0, total - bytes) / bytes);
+        }
+        int files = filesDone.get();
+        if (totalFiles > 0 && files > 0) {
+            return (long) (elapsed * Math.max(0, totalFiles - files) / files);
+        }
+        return -1;
+    }
+
+    /** One-line summary, e.g. "12/340 files, 45.2/1200.0 MB, 3.4 MB/s, 5:12 left". */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(filesDone.get()).append('/').append(totalFiles).append(" files, ");
+        double megabytes = bytesDone.get() / (1024.0 * 1024.0);
+        long total = totalBytes.get();
+        if (total > 0) {
+            sb.append(String.format(Locale.US, "%.1f/%.1f MB, ", megabytes, total / (1024.0 * 1024.0)));
+        } else {
+            sb.append(String.format(Locale.US, "%.1f MB, ", megabytes));
+        }
+        sb.append(String.format(Locale.US, "%.1f MB/s", getMegabytesPerSecond()));
+        long secondsLeft = getSecondsLeft();
+        if (secondsLeft >= 0) {
+            sb.append(", ").append(formatDuration(secondsLeft)).append(" left");
+        }
+        return sb.toString();
+    }
+
+    static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format(Locale.US, "%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+        }
+        return String.format(Locale.US, "%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /** A source whose reads count towards the job's bytes. */
+    public class TrackedInputStream extends FilterInputStream {
+        private long bytesRead;
+
+        TrackedInputStream(InputStream in) {
+            super(in);
+        }
+
+        /** Bytes read through this stream so far, including any skipped. */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * Takes the part of a {@code size}-byte file not read through this stream out of the
+         * total, for a file abandoned after a look at its start (a binary that isn't dumped).
+         */
+        public void skipUnread(long size) {
+            skipBytes(size - bytesRead);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCancelled();
+            int b = in.read();
+            if (b >= 0) {
+                bytesRead++;
+                bytesDone.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkCancelled();
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                bytesRead += n;
+                bytesDone.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkCancelled();
+            long skipped = in.skip(n);
+            if (skipped > 0) {
+                bytesRead += skipped;
+                bytesDone.addAndGet(skipped);
+            }
+            return skipped;
+        }
+
+        private void checkCancelled() throws InterruptedIOException {
+            if (cancelled) {
+                throw new InterruptedIOException("Conversion cancelled");
+            }
+        }
+
+        // Counting is not undone by a reset, so marks are not offered.
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
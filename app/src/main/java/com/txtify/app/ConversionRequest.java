@@ -0,0 +1,431 @@
+package com.txtify.app;
+
+import android.net.Uri;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * One queued conversion, with a snapshot of every setting it runs under, so a job resumed after
+ * a restart produces the same output as it would have the first time.
+ *
+ * A request is saved as {@code <id>.job} (a properties file) in the jobs directory; a project's
+ * sources and their metadata go next to it in {@code <id>.sources}, one per line.
+ */
+public class ConversionRequest {
+
+    public static final int KIND_PROJECT = 0;
+    public static final int KIND_ZIP = 1;
+
+    // How a project's output is laid out.
+    public static final int OUTPUT_MODE_FILES = 0;
+    public static final int OUTPUT_MODE_BUNDLE = 1;
+    public static final int OUTPUT_MODE_BUNDLE_WITH_TOC = 2;
+    public static final int OUTPUT_MODE_CHUNKED = 3;
+    public static final int OUTPUT_MODE_ZIP = 4;
+
+    static final String JOB_SUFFIX = ".job";
+    static final String SOURCES_SUFFIX = ".sources";
+    static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    private static final String TAG = "ConversionRequest";
+
+    /** A project source with the metadata resolved for it. */
+    public static class Source {
+        private final Uri uri;
+        private final UriMetadata metadata;
+
+        public Source(Uri uri, UriMetadata metadata) {
+            this.uri = uri;
+            this.metadata = metadata;
+        }
+
+        public Uri getUri() {
+            return uri;
+        }
+
+        public UriMetadata getMetadata() {
+            return metadata;
+        }
+    }
+
+    private long id;
+    private int kind;
+    private Uri saveFolderUri;
+    private String folderName;
+
+    // Project jobs.
+    private String projectName;
+    private int projectFileId;
+    private List<Source> sources = Collections.emptyList();
+
+    // ZIP jobs.
+    private Uri zipUri;
+    private long listingToken = -1;
+    private long[] selection = new long[0];
+
+    private int outputMode = OUTPUT_MODE_FILES;
+    private boolean createCopies = true;
+    private boolean hexDumpBinaries;
+    private boolean skipUnchanged;
+    private int workerCount = ConversionScheduler.DEFAULT_WORKER_COUNT;
+    private int nestedArchiveDepth = NestedArchives.DEFAULT_MAX_DEPTH;
+    private long chunkMaxBytes;
+    private long chunkMaxLines;
+    private int zipLevel = ZipOutputTarget.LEVEL_FAST;
+
+    private static long lastId;
+
+    private ConversionRequest() {
+    }
+
+    // Ids double as file names and as the queue order, so they must never repeat.
+    private static synchronized long nextId() {
+        lastId = Math.max(System.currentTimeMillis(), lastId + 1);
+        return lastId;
+    }
+
+    public static ConversionRequest forProject(String projectName, ProjectEntry project, Uri saveFolderUri, String folderName) {
+        ConversionRequest request = new ConversionRequest();
+        request.id = nextId();
+        request.kind = KIND_PROJECT;
+        request.projectName = projectName;
+        request.projectFileId = project.getFileId();
+        request.saveFolderUri = saveFolderUri;
+        request.folderName = folderName;
+        List<Source> sources = new ArrayList<>();
+        for (Uri uri : project.getUris()) {
+            sources.add(new Source(uri, project.getMetadata(uri)));
+        }
+        request.sources = sources;
+        return request;
+    }
+
+    public static ConversionRequest forZip(Uri zipUri, long listingToken, BitSet selection, Uri saveFolderUri, String folderName) {
+        ConversionRequest request = new ConversionRequest();
+        request.id = nextId();
+        request.kind = KIND_ZIP;
+        request.zipUri = zipUri;
+        request.listingToken = listingToken;
+        request.selection = selection.toLongArray();
+        request.saveFolderUri = saveFolderUri;
+        request.folderName = folderName;
+        return request;
+    }
+
+    public ConversionRequest setOutputMode(int outputMode) {
+        this.outputMode = outputMode;
+        return this;
+    }
+
+    public ConversionRequest setCreateCopies(boolean createCopies) {
+        this.createCopies = createCopies;
+        return this;
+    }
+
+    public ConversionRequest setHexDumpBinaries(boolean hexDumpBinaries) {
+        this.hexDumpBinaries = hexDumpBinaries;
+        return this;
+    }
+
+    public ConversionRequest setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+        return this;
+    }
+
+    public ConversionRequest setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+        return this;
+    }
+
+    public ConversionRequest setNestedArchiveDepth(int nestedArchiveDepth) {
+        this.nestedArchiveDepth = nestedArchiveDepth;
+        return this;
+    }
+
+    public ConversionRequest setChunkLimits(long maxBytes, long maxLines) {
+        this.chunkMaxBytes = maxBytes;
+        this.chunkMaxLines = maxLines;
+        return this;
+    }
+
+    public ConversionRequest setZipLevel(int zipLevel) {
+        this.zipLevel = zipLevel;
+        return this;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean isZip() {
+        return kind == KIND_ZIP;
+    }
+
+    public Uri getSaveFolderUri() {
+        return saveFolderUri;
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    public int getProjectFileId() {
+        return projectFileId;
+    }
+
+    public List<Source> getSources() {
+        return sources;
+    }
+
+    public Uri getZipUri() {
+        return zipUri;
+    }
+
+    public long getListingToken() {
+        return listingToken;
+    }
+
+    public BitSet getSelection() {
+        return BitSet.valueOf(selection);
+    }
+
+    public int getOutputMode() {
+        return outputMode;
+    }
+
+    public boolean shouldCreateCopies() {
+        return createCopies;
+    }
+
+    public boolean shouldHexDumpBinaries() {
+        return hexDumpBinaries;
+    }
+
+    public boolean shouldSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public int getNestedArchiveDepth() {
+        return nestedArchiveDepth;
+    }
+
+    public long getChunkMaxBytes() {
+        return chunkMaxBytes;
+    }
+
+    public long getChunkMaxLines() {
+        return chunkMaxLines;
+    }
+
+    public int getZipLevel() {
+        return zipLevel;
+    }
+
+    /** Where this job's checkpoint log lives, next to the job file. */
+    public File getCheckpointFile(File directory) {
+        return new File(directory, id + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Writes the job into {@code directory}. The job file goes last, through a temporary file,
+     * so a job is only ever picked up once all of it is on disk.
+     */
+    public void save(File directory) throws IOException {
+        directory.mkdirs();
+        if (kind == KIND_PROJECT) {
+            Writer out = null;
+            try {
+                out = new OutputStreamWriter(new FileOutputStream(new File(directory, id + SOURCES_SUFFIX)), StandardCharsets.UTF_8);
+                for (Source source : sources) {
+                    UriMetadata m = source.getMetadata();
+                    if (m == null) {
+                        out.write(source.getUri() + "\n");
+                    } else {
+                        String mimeType = (m.getMimeType() != null) ? m.getMimeType() : "";
+                        out.write(source.getUri() + "\t" + m.getSize() + "\t" + m.getLastModified() + "\t" + mimeType + "\t" + m.getName() + "\n");
+                    }
+                }
+            } finally {
+                closeQuietly(out);
+            }
+        }
+
+        Properties props = new Properties();
+        props.setProperty("kind", String.valueOf(kind));
+        props.setProperty("saveFolderUri", saveFolderUri.toString());
+        props.setProperty("folderName", folderName);
+        if (kind == KIND_PROJECT) {
+            props.setProperty("projectName", projectName);
+            props.setProperty("projectFileId", String.valueOf(projectFileId));
+        } else {
+            props.setProperty("zipUri", zipUri.toString());
+            props.setProperty("listingToken", String.valueOf(listingToken));
+            StringBuilder bits = new StringBuilder();
+            for (long word : selection) {
+                if (bits.length() > 0) bits.append(',');
+                bits.append(word);
+            }
+            props.setProperty("selection", bits.toString());
+        }
+        props.setProperty("outputMode", String.valueOf(outputMode));
+        props.setProperty("createCopies", String.valueOf(createCopies));
+        props.setProperty("hexDumpBinaries", String.valueOf(hexDumpBinaries));
+        props.setProperty("skipUnchanged", String.valueOf(skipUnchanged));
+        props.setProperty("workerCount", String.valueOf(workerCount));
+        props.setProperty("nestedArchiveDepth", String.valueOf(nestedArchiveDepth));
+        props.setProperty("chunkMaxBytes", String.valueOf(chunkMaxBytes));
+        props.setProperty("chunkMaxLines", String.valueOf(chunkMaxLines));
+        props.setProperty("zipLevel", String.valueOf(zipLevel));
+
+        File temp = new File(directory, id + JOB_SUFFIX + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            props.store(out, null);
+        } finally {
+            closeQuietly(out);
+        }
+        if (!temp.renameTo(new File(directory, id + JOB_SUFFIX))) {
+            throw new IOException("Could not save job " + id);
+        }
+    }
+
+    /** Reads a job saved by {@link #save(File)}, or returns null if it is damaged. */
+    @Nullable
+    public static ConversionRequest load(File jobFile) {
+        String fileName = jobFile.getName();
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(jobFile);
+            props.load(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + fileName, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        try {
+            ConversionRequest request = new ConversionRequest();
+            request.id = getJobId(jobFile);
+            if (request.id < 0) {
+                return null;
+            }
+            request.kind = Integer.parseInt(props.getProperty("kind"));
+            request.saveFolderUri = Uri.parse(props.getProperty("saveFolderUri"));
+            request.folderName = props.getProperty("folderName");
+            if (request.kind == KIND_PROJECT) {
+                request.projectName = props.getProperty("projectName");
+                request.projectFileId = Integer.parseInt(props.getProperty("projectFileId"));
+                request.sources = readSources(new File(jobFile.getParentFile(), request.id + SOURCES_SUFFIX));
+            } else {
+                request.zipUri = Uri.parse(props.getProperty("zipUri"));
+                request.listingToken = Long.parseLong(props.getProperty("listingToken"));
+                String bits = props.getProperty("selection", "");
+                String[] words = bits.isEmpty() ? new String[0] : bits.split(",");
+                request.selection = new long[words.length];
+                for (int i = 0; i < words.length; i++) {
+                    request.selection[i] = Long.parseLong(words[i]);
+                }
+            }
+            request.outputMode = Integer.parseInt(props.getProperty("outputMode"));
+            request.createCopies = Boolean.parseBoolean(props.getProperty("createCopies"));
+            request.hexDumpBinaries = Boolean.parseBoolean(props.getProperty("hexDumpBinaries"));
+            request.skipUnchanged = Boolean.parseBoolean(props.getProperty("skipUnchanged"));
+            request.workerCount = Integer.parseInt(props.getProperty("workerCount"));
+            request.nestedArchiveDepth = Integer.parseInt(props.getProperty("nestedArchiveDepth"));
+            request.chunkMaxBytes = Long.parseLong(props.getProperty("chunkMaxBytes"));
+            request.chunkMaxLines = Long.parseLong(props.getProperty("chunkMaxLines"));
+            request.zipLevel = Integer.parseInt(props.getProperty("zipLevel"));
+            return request;
+        } catch (IOException | RuntimeException e) {
+            // Missing sources, or a missing or malformed property.
+            Log.w(TAG, "Damaged job " + fileName, e);
+            return null;
+        }
+    }
+
+    /** The id encoded in a job file's name, or -1 if it isn't one. */
+    static long getJobId(File jobFile) {
+        String fileName = jobFile.getName();
+        if (!fileName.endsWith(JOB_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(0, fileName.length() - JOB_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Removes every file belonging to this job. */
+    public void delete(File directory) {
+        new File(directory, id + JOB_SUFFIX).delete();
+        new File(directory, id + SOURCES_SUFFIX).delete();
+        getCheckpointFile(directory).delete();
+    }
+
+    private static List<Source> readSources(File file) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 5);
+                if (fields[0].isEmpty()) {
+                    continue;
+                }
+                UriMetadata metadata = null;
+                if (fields.length == 5) {
+                    try {
+                        String mimeType = fields[3].isEmpty() ? null : fields[3];
+                        metadata = new UriMetadata(fields[4], Long.parseLong(fields[1]), mimeType, Long.parseLong(fields[2]));
+                    } catch (NumberFormatException e) {
+                        // Resolved again when the job runs.
+                    }
+                }
+                sources.add(new Source(Uri.parse(fields[0]), metadata));
+            }
+        } finally {
+            closeQuietly(reader);
+        }
+        return sources;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
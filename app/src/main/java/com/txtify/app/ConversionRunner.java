@@ -0,0 +1,857 @@
+package com.txtify.app;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Carries out one {@link ConversionRequest}: a staged project or a selection from a ZIP file,
+ * converted into a folder inside the save folder. Holds no reference to an activity, so it can
+ * run in {@link ConversionService} for as long as the batch takes.
+ *
+ * Every finished output is recorded in the job's {@link ConversionCheckpoint}; when a job is run
+ * again after an interruption, finished items are skipped and half-written outputs are removed.
+ * Bundle outputs are one stream that cannot be reopened in the middle, so they start over.
+ *
+ * A cancelled job is rolled back: every output it created is deleted, the manifest is left as
+ * it was, and the target folder goes too if that leaves it empty.
+ */
+public class ConversionRunner {
+
+    private static final String TAG = "ConversionRunner";
+    private static final byte[] TRUNCATED_MARKER = "\n[truncated: read error]\n".getBytes(StandardCharsets.UTF_8);
+
+    /** What a finished job reports back to the UI. */
+    public static class Outcome {
+        private final int successCount;
+        private final int binaryCount;
+        private final int unchangedCount;
+        private final int resumedCount;
+        private final String bundleName;
+        private final String throughputSummary;
+        private final boolean cancelled;
+        private final boolean folderRemoved;
+
+        Outcome(int successCount, int binaryCount, int unchangedCount, int resumedCount, String bundleName, String throughputSummary) {
+            this(successCount, binaryCount, unchangedCount, resumedCount, bundleName, throughputSummary, false, false);
+        }
+
+        Outcome(int successCount, int binaryCount, int unchangedCount, int resumedCount, String bundleName, String throughputSummary,
+                boolean cancelled, boolean folderRemoved) {
+            this.successCount = successCount;
+            this.binaryCount = binaryCount;
+            this.unchangedCount = unchangedCount;
+            this.resumedCount = resumedCount;
+            this.bundleName = bundleName;
+            this.throughputSummary = throughputSummary;
+            this.cancelled = cancelled;
+            this.folderRemoved = folderRemoved;
+        }
+
+        /** Outcome of a job that was cancelled and rolled back. */
+        static Outcome cancelled(boolean folderRemoved) {
+            return new Outcome(0, 0, 0, 0, null, null, true, folderRemoved);
+        }
+
+        /** Files saved, including those saved before an interruption; -1 if the folder was unusable. */
+        public int getSuccessCount() {
+            return successCount;
+        }
+
+        public int getBinaryCount() {
+            return binaryCount;
+        }
+
+        public int getUnchangedCount() {
+            return unchangedCount;
+        }
+
+        /** Files that an interrupted earlier attempt had already saved. */
+        public int getResumedCount() {
+            return resumedCount;
+        }
+
+        @Nullable
+        public String getBundleName() {
+            return bundleName;
+        }
+
+        @Nullable
+        public String getThroughputSummary() {
+            return throughputSummary;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** True if the cancelled job's folder was left empty and deleted. */
+        public boolean isFolderRemoved() {
+            return folderRemoved;
+        }
+    }
+
+    private final ConversionRequest request;
+    private final ConversionCheckpoint checkpoint;
+    private final ConversionProgress progress;
+    private final ConversionEngine conversionEngine;
+    private final ContentResolver resolver;
+    private final DocumentStorage storage;
+    private final UriMetadataResolver metadataResolver;
+
+    private final AtomicInteger binaryCount = new AtomicInteger();
+    private final AtomicInteger unchangedCount = new AtomicInteger();
+    private String bundleName;
+    private String throughputSummary;
+
+    public ConversionRunner(Context context, ConversionRequest request, ConversionCheckpoint checkpoint, ConversionProgress progress, ConversionEngine conversionEngine) {
+        this.request = request;
+        this.checkpoint = checkpoint;
+        this.progress = progress;
+        this.conversionEngine = conversionEngine;
+        this.resolver = context.getContentResolver();
+        this.storage = new DocumentStorage(resolver);
+        this.metadataResolver = new UriMetadataResolver(context, request.getWorkerCount());
+    }
+
+    /** Runs the whole job on the calling thread. */
+    public Outcome run() {
+        DirectoryNameIndex projectDirIndex = loadTargetFolder();
+        if (projectDirIndex == null) {
+            return new Outcome(-1, 0, 0, 0, null, null);
+        }
+
+        for (String name : checkpoint.getUnfinishedOutputs()) {
+            DocumentHandle partial = projectDirIndex.get(name);
+            if (partial != null && storage.delete(partial)) {
+                projectDirIndex.remove(name);
+            }
+        }
+
+        int resumedCount = checkpoint.getDoneCount();
+        int successCount = request.isZip() ? convertZip(projectDirIndex) : convertProject(projectDirIndex);
+        if (progress.isCancelled()) {
+            return Outcome.cancelled(rollBack(projectDirIndex));
+        }
+        if (successCount >= 0) {
+            successCount += resumedCount;
+        }
+        return new Outcome(successCount, binaryCount.get(), unchangedCount.get(), resumedCount, bundleName, throughputSummary);
+    }
+
+    // Deletes every output the job created, in this attempt or an earlier one, apart from
+    // finished replacements of earlier outputs, and then the folder itself if nothing else is
+    // in it. Returns true if the folder was deleted.
+    private boolean rollBack(DirectoryNameIndex projectDirIndex) {
+        for (String name : checkpoint.getOutputs()) {
+            DocumentHandle output = projectDirIndex.get(name);
+            if (output != null && storage.delete(output)) {
+                projectDirIndex.remove(name);
+            }
+        }
+        Log.i(TAG, "Job " + request.getId() + " cancelled, outputs removed");
+        return projectDirIndex.isEmpty() && storage.delete(projectDirIndex.getDirectory());
+    }
+
+    // Opens the request's folder directly inside the save folder.
+    @Nullable
+    private DirectoryNameIndex loadTargetFolder() {
+        DocumentHandle saveFolder = storage.openTree(request.getSaveFolderUri());
+        if (saveFolder == null) return null;
+        DirectoryNameIndex saveIndex = DirectoryNameIndex.load(storage, saveFolder);
+        if (saveIndex == null) return null;
+        DocumentHandle folder = saveIndex.get(request.getFolderName());
+        if (folder == null || !folder.isDirectory()) return null;
+        return DirectoryNameIndex.load(storage, folder);
+    }
+
+    private int convertProject(final DirectoryNameIndex projectDirIndex) {
+        final List<ConversionRequest.Source> sortedFiles = new ArrayList<>();
+        for (ConversionRequest.Source source : request.getSources()) {
+            if (source.getMetadata() == null) {
+                source = new ConversionRequest.Source(source.getUri(), metadataResolver.resolve(source.getUri()));
+            }
+            sortedFiles.add(source);
+        }
+        Collections.sort(sortedFiles, new Comparator<ConversionRequest.Source>() {
+				@Override
+				public int compare(ConversionRequest.Source f1, ConversionRequest.Source f2) {
+					return f1.getMetadata().getName().compareTo(f2.getMetadata().getName());
+				}
+			});
+
+        long totalBytes = 0;
+        for (ConversionRequest.Source file : sortedFiles) {
+            long size = file.getMetadata().getSize();
+            totalBytes = (size >= 0 && totalBytes >= 0) ? totalBytes + size : -1;
+        }
+        progress.setTotals(sortedFiles.size(), totalBytes);
+
+        if (request.getOutputMode() != ConversionRequest.OUTPUT_MODE_FILES) {
+            return convertToBundle(projectDirIndex, sortedFiles);
+        }
+
+        // Incremental runs compare each source against what the last run recorded.
+        final ConversionManifest manifest = request.shouldSkipUnchanged() ? ConversionManifest.load(resolver, projectDirIndex) : null;
+
+        // Reading sources and writing outputs overlap across workers; only the creation of
+        // each output file waits for its turn, so names are assigned in sorted order.
+        ConversionScheduler.Result result = new ConversionScheduler(request.getWorkerCount()).run(sortedFiles.size(), progress.countFiles(new ConversionScheduler.Job() {
+				@Override
+				public long run(int index, ConversionScheduler.Turn turn) {
+					ConversionRequest.Source file = sortedFiles.get(index);
+					// Keyed by source rather than position, as names can sort differently on resume.
+					String key = file.getUri().toString();
+					if (checkpoint.isDone(key)) {
+						progress.skipBytes(file.getMetadata().getSize());
+						if (manifest != null) {
+							// The interrupted attempt never saved its manifest; take its record from the checkpoint.
+							String detail = checkpoint.getDoneDetail(key);
+							ConversionManifest.Record record = (detail != null) ? ConversionManifest.Record.parse(detail) : null;
+							if (record != null) {
+								manifest.put(record);
+							}
+						}
+						return -1; // Saved before the interruption; counted separately.
+					}
+					String name = file.getMetadata().getName();
+					ConversionManifest.Record previous = null;
+					if (manifest != null) {
+						previous = manifest.get(file.getUri().toString());
+						if (previous != null && !projectDirIndex.contains(previous.getOutputName())) {
+							previous = null; // Its output was deleted, so convert it again.
+						}
+						if (previous != null && isUnchanged(file, previous, manifest)) {
+							unchangedCount.incrementAndGet();
+							progress.skipBytes(file.getMetadata().getSize());
+							return -1;
+						}
+					}
+
+					progress.startFile(name);
+					InputStream is = null;
+					MessageDigest digest = null;
+					try {
+						is = resolver.openInputStream(file.getUri());
+						if (is == null) return -1;
+						ConversionProgress.TrackedInputStream tracked = progress.track(is);
+						is = tracked;
+						if (manifest != null) {
+							digest = ConversionManifest.newDigest();
+							is = new DigestInputStream(is, digest);
+						}
+
+						// Decide before creating anything, so binaries never leave an output behind.
+						is = ContentSniffer.markable(is);
+						boolean binary = ContentSniffer.isBinary(is);
+						if (binary) {
+							binaryCount.incrementAndGet();
+							if (!request.shouldHexDumpBinaries()) {
+								// Its first bytes were read for the check and are counted already.
+								tracked.skipUnread(file.getMetadata().getSize());
+								return -1;
+							}
+						}
+						Charset charset = binary ? null : CharsetDetector.detect(is);
+
+						DocumentHandle newFile;
+						DocumentHandle oldOutput = null;
+						turn.await();
+						try {
+							String fileName = name + ".txt";
+							if (previous != null) {
+								// The old output stays until its replacement is complete, so a failed or
+								// cancelled update keeps it. Until then the new one has a free name.
+								oldOutput = projectDirIndex.get(previous.getOutputName());
+								if (oldOutput != null) {
+									fileName = projectDirIndex.findFreeCopyName(fileName);
+								}
+							}
+							newFile = createOutputFile(projectDirIndex, fileName, "text/plain", key);
+						} finally {
+							turn.release();
+						}
+						if (newFile == null) return -1;
+						long bytes = writeConvertedFile(projectDirIndex, newFile, is, charset, true, binary);
+						if (bytes >= 0 && oldOutput != null) {
+							newFile = replaceOutput(projectDirIndex, oldOutput, newFile);
+						}
+						if (bytes >= 0) {
+							if (manifest != null) {
+								// The source's own size, not what was converted: that leaves out a byte-order mark.
+								long size = file.getMetadata().getSize();
+								ConversionManifest.Record record = new ConversionManifest.Record(file.getUri().toString(),
+									(size >= 0) ? size : tracked.getBytesRead(), file.getMetadata().getLastModified(),
+									ConversionManifest.toHex(digest.digest()), newFile.getName());
+								manifest.put(record);
+								checkpoint.finished(key, record.toLine());
+							} else {
+								checkpoint.finished(key);
+							}
+						}
+						return bytes;
+					} catch (IOException e) {
+						// Unreadable source, skip it.
+						return -1;
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return -1;
+					} finally {
+						try {
+							if (is != null) is.close();
+						} catch (IOException e) {
+							// ignore
+						}
+					}
+				}
+			}));
+
+        // A cancelled run is rolled back, so the previous manifest still describes the folder.
+        if (manifest != null && !progress.isCancelled() && !manifest.save(storage, projectDirIndex)) {
+            Log.w(TAG, "Could not write the conversion manifest to " + request.getFolderName());
+        }
+
+        this.throughputSummary = result.getThroughputSummary();
+        Log.i(TAG, "Project conversion: " + throughputSummary);
+        return result.successCount;
+    }
+
+    // Swaps a finished output in for the one it replaces, under the old name where possible.
+    // Either way it is now the only copy, so a rollback must leave it alone.
+    private DocumentHandle replaceOutput(DirectoryNameIndex dirIndex, DocumentHandle oldOutput, DocumentHandle newFile) {
+        checkpoint.kept(newFile.getName());
+        if (!storage.delete(oldOutput)) {
+            return newFile;
+        }
+        dirIndex.remove(oldOutput.getName());
+        DocumentHandle renamed = storage.rename(newFile, oldOutput.getName());
+        if (renamed == null) {
+            return newFile;
+        }
+        dirIndex.remove(newFile.getName());
+        dirIndex.put(renamed);
+        return renamed;
+    }
+
+    // Size and time both match: unchanged without reading. Otherwise, if the size still
+    // could match, hash the content and compare; a touched but identical file only gets its
+    // new time recorded.
+    private boolean isUnchanged(ConversionRequest.Source file, ConversionManifest.Record previous, ConversionManifest manifest) {
+        UriMetadata metadata = file.getMetadata();
+        if (previous.matches(metadata)) {
+            return true;
+        }
+        long size = metadata.getSize();
+        if (size >= 0 && size != previous.getSize()) {
+            return false;
+        }
+        InputStream is = null;
+        try {
+            is = resolver.openInputStream(file.getUri());
+            if (is == null || !ConversionManifest.hash(is).equals(previous.getHash())) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                if (is != null) is.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        manifest.put(previous.withLastModified(metadata.getLastModified()));
+        return true;
+    }
+
+    // Streams every source, in sorted order, into one bundle file or ZIP archive, so the
+    // provider only has to create a single document. The target has one writer, so this runs
+    // on one worker. In chunked mode the bundle is spread over name.partNNN.txt files instead.
+    private int convertToBundle(final DirectoryNameIndex projectDirIndex, final List<ConversionRequest.Source> sortedFiles) {
+        final int outputMode = request.getOutputMode();
+        final String folderName = request.getFolderName();
+        final List<DocumentHandle> outputFiles = new ArrayList<>();
+        OutputStream os;
+        if (outputMode == ConversionRequest.OUTPUT_MODE_CHUNKED) {
+            os = new ChunkedOutputStream(new ChunkedOutputStream.PartFactory() {
+					@Override
+					public OutputStream openPart(int partNumber) throws IOException {
+						String partName = String.format(Locale.US, "%s.part%03d.txt", folderName, partNumber);
+						DocumentHandle part = createOutputFile(projectDirIndex, partName, "text/plain", partName);
+						if (part == null) throw new IOException("Could not create " + partName);
+						outputFiles.add(part);
+						OutputStream partStream = resolver.openOutputStream(part.getUri());
+						if (partStream == null) throw new IOException("Could not open " + partName);
+						return partStream;
+					}
+				}, request.getChunkMaxBytes(), request.getChunkMaxLines());
+        } else {
+            String bundleFileName = folderName + ((outputMode == ConversionRequest.OUTPUT_MODE_ZIP) ? ".zip" : ".txt");
+            String mimeType = (outputMode == ConversionRequest.OUTPUT_MODE_ZIP) ? "application/zip" : "text/plain";
+            DocumentHandle bundleFile = createOutputFile(projectDirIndex, bundleFileName, mimeType, bundleFileName);
+            if (bundleFile == null) return -1;
+            outputFiles.add(bundleFile);
+            try {
+                os = resolver.openOutputStream(bundleFile.getUri());
+            } catch (IOException e) {
+                os = null;
+            }
+            if (os == null) {
+                storage.delete(bundleFile);
+                return -1;
+            }
+        }
+
+        final OutputTarget bundle = (outputMode == ConversionRequest.OUTPUT_MODE_ZIP)
+            ? new ZipOutputTarget(os, request.getZipLevel())
+            : new BundleWriter(os, outputMode != ConversionRequest.OUTPUT_MODE_BUNDLE, sortedFiles.size());
+        // Set once the bundle itself can't be written; the remaining sources are then skipped.
+        final AtomicBoolean bundleFailed = new AtomicBoolean();
+        ConversionScheduler.Result result = new ConversionScheduler(1).run(sortedFiles.size(), progress.countFiles(new ConversionScheduler.Job() {
+				@Override
+				public long run(int index, ConversionScheduler.Turn turn) {
+					if (bundleFailed.get()) return -1;
+					ConversionRequest.Source file = sortedFiles.get(index);
+					progress.startFile(file.getMetadata().getName());
+					InputStream is = null;
+					try {
+						is = resolver.openInputStream(file.getUri());
+						if (is == null) return -1;
+						ConversionProgress.TrackedInputStream tracked = progress.track(is);
+
+						is = ContentSniffer.markable(tracked);
+						boolean binary = ContentSniffer.isBinary(is);
+						if (binary) {
+							binaryCount.incrementAndGet();
+							if (!request.shouldHexDumpBinaries()) {
+								tracked.skipUnread(file.getMetadata().getSize());
+								return -1;
+							}
+						}
+
+						Charset charset = binary ? null : CharsetDetector.detect(is);
+
+						String name = file.getMetadata().getName();
+						String entryName = (outputMode == ConversionRequest.OUTPUT_MODE_ZIP) ? name + ".txt" : name;
+						long bytes;
+						try {
+							WatchedOutputStream entry = new WatchedOutputStream(bundle.beginFile(entryName));
+							try {
+								bytes = binary
+									? conversionEngine.hexDump(is, entry)
+									: conversionEngine.convert(is, entry, charset, true);
+							} catch (IOException e) {
+								if (entry.hasFailed()) throw e;
+								// The source broke off part way; mark the cut, so the partial text
+								// isn't taken for the whole file.
+								entry.write(TRUNCATED_MARKER);
+								bytes = -1;
+							}
+							bundle.endFile();
+						} catch (IOException e) {
+							Log.w(TAG, "Could not write the bundle", e);
+							bundleFailed.set(true);
+							return -1;
+						}
+						return bytes;
+					} catch (IOException e) {
+						// Unreadable source, skip it.
+						return -1;
+					} finally {
+						try {
+							if (is != null) is.close();
+						} catch (IOException e) {
+							// ignore
+						}
+					}
+				}
+			}));
+
+        try {
+            bundle.close();
+            if (bundleFailed.get()) {
+                throw new IOException("Bundle write failed");
+            }
+        } catch (IOException e) {
+            // Don't leave a truncated bundle behind.
+            for (DocumentHandle file : outputFiles) {
+                if (storage.delete(file)) {
+                    projectDirIndex.remove(file.getName());
+                }
+            }
+            return -1;
+        }
+        this.throughputSummary = result.getThroughputSummary();
+        Log.i(TAG, "Bundle conversion: " + throughputSummary);
+        if (!outputFiles.isEmpty()) {
+            this.bundleName = (outputFiles.size() == 1)
+                ? outputFiles.get(0).getName()
+                : String.format(Locale.US, "%s.part001-%03d.txt", folderName, outputFiles.size());
+        }
+        return result.successCount;
+    }
+
+    private int convertZip(DirectoryNameIndex projectDirIndex) {
+        // The listing normally comes straight from ZipContentsActivity; if the process was
+        // restarted in between, re-read it (indices are stable for the same archive).
+        ZipListing listing = ZipListing.lookup(request.getListingToken(), request.getZipUri());
+        if (listing == null) {
+            listing = ZipListing.load(resolver, request.getZipUri(), request.getNestedArchiveDepth());
+        }
+
+        // Paths still waiting to be written. Membership is a hash lookup, and once the set
+        // drains there is nothing left to find, so both loops stop early.
+        BitSet selection = request.getSelection();
+        Set<String> pendingPaths = new HashSet<>(selection.cardinality() * 2);
+        for (int i = selection.nextSetBit(0); i >= 0 && i < listing.size(); i = selection.nextSetBit(i + 1)) {
+            String path = listing.getFullPath(i);
+            if (!checkpoint.isDone(path)) {
+                pendingPaths.add(path);
+            }
+        }
+
+        // Seek straight to the selected entries when the provider gives us a seekable file.
+        ZipArchiveReader archive = null;
+        try {
+            archive = ZipArchiveReader.open(resolver, request.getZipUri());
+        } catch (IOException e) {
+            archive = null;
+        }
+        if (archive != null) {
+            try {
+                return convertFromCentralDirectory(archive, projectDirIndex, pendingPaths);
+            } finally {
+                try {
+                    archive.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        // Otherwise (e.g. the provider only offers a pipe) scan the whole stream.
+        progress.setTotals(pendingPaths.size(), -1);
+        NestedEntryConverter converter = new NestedEntryConverter(projectDirIndex, pendingPaths);
+        InputStream is = null;
+        try {
+            is = resolver.openInputStream(request.getZipUri());
+            NestedArchives.walk(is, "", request.getNestedArchiveDepth(), converter);
+        } catch (IOException e) {
+            return converter.successCount;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return converter.successCount;
+    }
+
+    // Selected entries are independent once their offsets are known, so they are extracted
+    // and converted on the worker pool, each through its own positional stream and inflater.
+    private int convertFromCentralDirectory(final ZipArchiveReader archive, final DirectoryNameIndex projectDirIndex, Set<String> pendingPaths) {
+        // Top-level archives that hold selected files; these are streamed afterwards.
+        Set<String> pendingContainers = new HashSet<>();
+        int topLevelRemaining = 0;
+        for (String path : pendingPaths) {
+            if (path.contains(NestedArchives.SEPARATOR)) {
+                pendingContainers.add(NestedArchives.getOuterName(path));
+            } else {
+                topLevelRemaining++;
+            }
+        }
+
+        final List<ZipArchiveReader.Entry> selectedEntries = new ArrayList<>();
+        List<ZipArchiveReader.Entry> containerEntries = new ArrayList<>();
+        for (ZipArchiveReader.Entry entry : archive.getEntries()) {
+            if (topLevelRemaining == 0 && pendingContainers.isEmpty()) {
+                break;
+            }
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (pendingPaths.remove(entry.getName())) {
+                selectedEntries.add(entry);
+                topLevelRemaining--;
+            } else if (pendingContainers.remove(entry.getName())) {
+                containerEntries.add(entry);
+            }
+        }
+
+        // Sizes come from the central directory; those inside nested archives aren't known.
+        long totalBytes = 0;
+        for (ZipArchiveReader.Entry entry : selectedEntries) {
+            totalBytes += Math.max(0, entry.getSize());
+        }
+        progress.setTotals(selectedEntries.size() + pendingPaths.size(), pendingPaths.isEmpty() ? totalBytes : -1);
+
+        ConversionScheduler.Result result = new ConversionScheduler(request.getWorkerCount()).run(selectedEntries.size(), progress.countFiles(new ConversionScheduler.Job() {
+				@Override
+				public long run(int index, ConversionScheduler.Turn turn) {
+					ZipArchiveReader.Entry entry = selectedEntries.get(index);
+					progress.startFile(entry.getName());
+					InputStream is = null;
+					try {
+						ConversionProgress.TrackedInputStream tracked = progress.track(archive.getInputStream(entry));
+						is = ContentSniffer.markable(tracked);
+						boolean binary = ContentSniffer.isBinary(is);
+						if (binary) {
+							binaryCount.incrementAndGet();
+							if (!request.shouldHexDumpBinaries()) {
+								tracked.skipUnread(entry.getSize());
+								return -1;
+							}
+						}
+						Charset charset = binary ? null : CharsetDetector.detect(is);
+
+						DocumentHandle newFile;
+						turn.await();
+						try {
+							newFile = createOutputFile(projectDirIndex, getFileName(entry.getName()) + ".txt", "text/plain", entry.getName());
+						} finally {
+							turn.release();
+						}
+						if (newFile == null) return -1;
+						long bytes = writeConvertedFile(projectDirIndex, newFile, is, charset, false, binary);
+						if (bytes >= 0) {
+							checkpoint.finished(entry.getName());
+						}
+						return bytes;
+					} catch (IOException e) {
+						// Corrupt or unsupported entry, skip it.
+						return -1;
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return -1;
+					} finally {
+						try {
+							if (is != null) is.close();
+						} catch (IOException e) {
+							// ignore
+						}
+					}
+				}
+			}));
+
+        this.throughputSummary = result.getThroughputSummary();
+        Log.i(TAG, "ZIP conversion: " + throughputSummary);
+
+        // Nested archives can only be read front to back, so each one is streamed in turn
+        // straight from the outer entry's inflater.
+        NestedEntryConverter converter = new NestedEntryConverter(projectDirIndex, pendingPaths);
+        int depth = request.getNestedArchiveDepth();
+        for (ZipArchiveReader.Entry entry : containerEntries) {
+            if (progress.isCancelled()) {
+                break;
+            }
+            InputStream is = null;
+            try {
+                is = archive.getInputStream(entry);
+                NestedArchives.visitEntry(entry.getName(), is, "", depth, converter);
+            } catch (IOException e) {
+                // Corrupt inner archive, keep whatever was converted from it.
+            } finally {
+                try {
+                    if (is != null) is.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return result.successCount + converter.successCount;
+    }
+
+    /**
+     * Converts the selected files met while walking an archive stream, descending only into
+     * archives that still contain selected files.
+     */
+    private class NestedEntryConverter implements NestedArchives.Visitor {
+        private final DirectoryNameIndex projectDirIndex;
+        private final Set<String> pendingPaths;
+        int successCount = 0;
+
+        NestedEntryConverter(DirectoryNameIndex projectDirIndex, Set<String> pendingPaths) {
+            this.projectDirIndex = projectDirIndex;
+            this.pendingPaths = pendingPaths;
+        }
+
+        @Override
+        public boolean isDone() {
+            return pendingPaths.isEmpty() || progress.isCancelled();
+        }
+
+        @Override
+        public boolean enterArchive(String archivePath) {
+            if (pendingPaths.contains(archivePath)) {
+                return false; // Listed as a plain file because it could not be opened as an archive.
+            }
+            String prefix = archivePath + NestedArchives.SEPARATOR;
+            for (String path : pendingPaths) {
+                if (path.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void visitFile(String path, InputStream in) throws IOException {
+            if (!pendingPaths.remove(path)) {
+                return;
+            }
+            progress.startFile(path);
+            try {
+                in = ContentSniffer.markable(progress.track(in));
+                boolean binary = ContentSniffer.isBinary(in);
+                if (binary) {
+                    binaryCount.incrementAndGet();
+                    if (!request.shouldHexDumpBinaries()) return;
+                }
+                Charset charset = binary ? null : CharsetDetector.detect(in);
+                DocumentHandle newFile = createOutputFile(projectDirIndex, getFileName(path) + ".txt", "text/plain", path);
+                if (newFile != null && writeConvertedFile(projectDirIndex, newFile, in, charset, false, binary) >= 0) {
+                    checkpoint.finished(path);
+                    successCount++;
+                }
+            } finally {
+                progress.fileDone();
+            }
+        }
+
+        @Override
+        public void onEmptyArchive(String archivePath) {
+            // Nothing selected can be inside it.
+        }
+    }
+
+    // Picks the final name (a "-N" copy or an overwrite), creates the empty output file and
+    // records it in the checkpoint under {@code key}. Parallel conversions must call this in
+    // sorted order to get the same names as a serial run. Every probe is a lookup in the
+    // directory's index, never a provider query.
+    private DocumentHandle createOutputFile(DirectoryNameIndex dirIndex, String fileName, String mimeType, String key) {
+        String finalFileName;
+        if (request.shouldCreateCopies()) {
+            finalFileName = dirIndex.findFreeCopyName(fileName);
+        } else {
+            finalFileName = fileName;
+            DocumentHandle existing = dirIndex.get(fileName);
+            if (existing != null && storage.delete(existing)) {
+                dirIndex.remove(fileName);
+            }
+        }
+        DocumentHandle newFile = storage.createDocument(dirIndex.getDirectory(), mimeType, finalFileName);
+        if (newFile != null) {
+            dirIndex.put(newFile);
+            checkpoint.started(key, newFile.getName());
+        }
+        return newFile;
+    }
+
+    // Streams the source straight into the new file through the shared conversion engine, so
+    // memory use stays constant no matter how large the source is. Returns the number of source
+    // bytes converted, or -1 on failure. Binary sources are written as a hex dump when hexDump
+    // is set. The source is not closed. A failed output is deleted and dropped from dirIndex, so
+    // its name is free again for the next file.
+    private long writeConvertedFile(DirectoryNameIndex dirIndex, DocumentHandle newFile, InputStream source, Charset sourceCharset, boolean normalizeLineEndings, boolean hexDump) {
+        OutputStream out = null;
+        try {
+            out = resolver.openOutputStream(newFile.getUri());
+            if (out != null) {
+                if (hexDump) {
+                    return conversionEngine.hexDump(source, out);
+                }
+                return conversionEngine.convert(source, out, sourceCharset, normalizeLineEndings);
+            }
+        } catch (IOException e) {
+            // Don't leave a truncated .txt behind.
+            if (storage.delete(newFile)) {
+                dirIndex.remove(newFile.getName());
+            }
+            return -1;
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        return -1;
+    }
+
+    // A bundle entry's stream that tells the bundle's own write failures apart from the
+    // source's read failures, which surface from the same conversion call.
+    private static class WatchedOutputStream extends FilterOutputStream {
+        private boolean failed;
+
+        WatchedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        boolean hasFailed() {
+            return failed;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        // The bundle owns the underlying stream.
+        @Override
+        public void close() {
+        }
+    }
+
+    // Last segment of an archive path, nested or not.
+    private static String getFileName(String path) {
+        int cut = path.lastIndexOf('/');
+        return (cut != -1) ? path.substring(cut + 1) : path;
+    }
+}
@@ -0,0 +1,195 @@
+package com.txtify.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a batch of per-file conversion jobs on a bounded pool of worker threads.
+ *
+ * Jobs are handed out in index order. Each job gets a {@link Turn} that serialises the one
+ * step that must happen in sorted order (choosing and creating the output file), while the
+ * slow provider I/O around it overlaps with the other workers. The output is therefore the
+ * same as the sequential loop, including which duplicate gets the "-1" suffix.
+ */
+public class ConversionScheduler {
+
+    public static final int DEFAULT_WORKER_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    public interface Job {
+        /**
+         * Converts the file at {@code index}.
+         *
+         * @return the number of source bytes converted, or a negative value if the file was not saved
+         */
+        long run(int index, Turn turn);
+    }
+
+    /**
+     * An ordered critical section: {@link #await()} returns only once every lower index has
+     * released its turn. A job that never takes its turn has it passed on automatically.
+     */
+    public interface Turn {
+        void await() throws InterruptedException;
+        void release();
+    }
+
+    public static class Result {
+        public final boolean[] succeeded;
+        public final int successCount;
+        public final long bytes;
+        public final long elapsedNanos;
+        public final int workerCount;
+
+        Result(boolean[] succeeded, int successCount, long bytes, long elapsedNanos, int workerCount) {
+            this.succeeded = succeeded;
+            this.successCount = successCount;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.workerCount = workerCount;
+        }
+
+        public double getFilesPerSecond() {
+            return elapsedNanos > 0 ? successCount / (elapsedNanos / 1e9) : 0;
+        }
+
+        public double getMegabytesPerSecond() {
+            return elapsedNanos > 0 ? (bytes / (1024.0 * 1024.0)) / (elapsedNanos / 1e9) : 0;
+        }
+
+        public String getThroughputSummary() {
+            return String.format(Locale.US, "%d files, %.1f MB in %.1f s (%.1f files/s, %.2f MB/s, %d worker%s)",
+                successCount, bytes / (1024.0 * 1024.0), elapsedNanos / 1e9,
+                getFilesPerSecond(), getMegabytesPerSecond(), workerCount, workerCount == 1 ? "" : "s");
+        }
+    }
+
+    private final int workerCount;
+
+    public ConversionScheduler(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    public Result run(int jobCount, final Job job) {
+        final boolean[] succeeded = new boolean[jobCount];
+        final AtomicLong bytes = new AtomicLong();
+        final OrderedGate gate = new OrderedGate();
+        final AtomicInteger nextIndex = new AtomicInteger();
+        int threads = Math.min(workerCount, Math.max(1, jobCount));
+        long start = System.nanoTime();
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = nextIndex.getAndIncrement()) < succeeded.length) {
+                    IndexTurn turn = new IndexTurn(gate, index);
+                    long converted = -1;
+                    try {
+                        converted = job.run(index, turn);
+                    } catch (RuntimeException e) {
+                        // A job that blows up only loses its own file; the others carry on.
+                    } finally {
+                        turn.passOn();
+                    }
+                    if (converted >= 0) {
+                        succeeded[index] = true;
+                        bytes.addAndGet(converted);
+                    }
+                }
+            }
+        };
+
+        if (threads == 1) {
+            // The sequential path runs on the calling thread, exactly like the old loop.
+            worker.run();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executor.submit(worker));
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (Exception e) {
+                        // Per-job failures are already accounted for inside the worker.
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        int successCount = 0;
+        for (boolean ok : succeeded) {
+            if (ok) successCount++;
+        }
+        return new Result(succeeded, successCount, bytes.get(), System.nanoTime() - start, threads);
+    }
+
+    private static class OrderedGate {
+        private int next = 0;
+
+        synchronized void await(int index) throws InterruptedException {
+            while (next != index) {
+                wait();
+            }
+        }
+
+        synchronized void advance(int index) {
+            if (next == index) {
+                next = index + 1;
+                notifyAll();
+            }
+        }
+    }
+
+    private static class IndexTurn implements Turn {
+        private final OrderedGate gate;
+        private final int index;
+        private boolean released = false;
+
+        IndexTurn(OrderedGate gate, int index) {
+            this.gate = gate;
+            this.index = index;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            gate.await(index);
+        }
+
+        @Override
+        public void release() {
+            if (!released) {
+                released = true;
+                gate.advance(index);
+            }
+        }
+
+        // Called after the job returns, so a job that failed early cannot stall the later ones.
+        void passOn() {
+            if (released) return;
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    gate.await(index);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            release();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
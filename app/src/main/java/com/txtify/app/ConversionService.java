@@ -0,0 +1,321 @@
+package com.txtify.app;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Foreground service that runs queued {@link ConversionRequest}s one after another, independent
+ * of any activity, under an ongoing notification.
+ *
+ * Jobs are saved in {@code filesDir/jobs} before the service is started and deleted only once
+ * they have finished, so a job cut short by the process being killed is still on disk. It is
+ * picked up again the next time the service starts (a sticky restart, or the app being opened)
+ * and continues from its {@link ConversionCheckpoint}.
+ *
+ * Finished jobs are reported to the registered {@link Listener} on the main thread. Results that
+ * arrive while no listener is registered are held until one is.
+ *
+ * The running job can be cancelled from the notification or with {@link #cancelCurrent}; it stops
+ * at its next read, is rolled back, and the queue moves on.
+ */
+public class ConversionService extends Service {
+
+    /** Receives progress and finished jobs on the main thread. */
+    public interface Listener {
+        /** Called at a fixed rate while a job runs. */
+        void onConversionProgress(ConversionRequest request, ConversionProgress progress);
+
+        void onConversionFinished(ConversionRequest request, ConversionRunner.Outcome outcome);
+    }
+
+    private static final String TAG = "ConversionService";
+    private static final String ACTION_CANCEL = "com.txtify.app.action.CANCEL_CONVERSION";
+    private static final String JOBS_DIRECTORY = "jobs";
+    private static final String CHANNEL_ID = "conversions";
+    private static final int NOTIFICATION_ID = 1;
+    // Progress is sampled at this rate, however fast the job moves.
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Main thread only.
+    private static Listener listener;
+    private static final List<ConversionRequest> undeliveredRequests = new ArrayList<>();
+    private static final List<ConversionRunner.Outcome> undeliveredOutcomes = new ArrayList<>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ConversionEngine conversionEngine = new ConversionEngine();
+    // Ids of the jobs handed to the executor by this instance; main thread only.
+    private final Set<Long> queuedJobs = new HashSet<>();
+    // The running job and its counters; main thread only.
+    private ConversionRequest currentRequest;
+    private ConversionProgress currentProgress;
+    private int lastStartId;
+
+    private final Runnable progressTicker = new Runnable() {
+		@Override
+		public void run() {
+			if (currentProgress == null) {
+				return;
+			}
+			updateNotification();
+			if (listener != null) {
+				listener.onConversionProgress(currentRequest, currentProgress);
+			}
+			mainHandler.postDelayed(this, PROGRESS_INTERVAL_MS);
+		}
+	};
+
+    /** Saves the job and starts the service to run it. Call from the main thread. */
+    public static void start(Context context, ConversionRequest request) throws IOException {
+        request.save(getJobsDirectory(context));
+        ContextCompat.startForegroundService(context, new Intent(context, ConversionService.class));
+    }
+
+    /** Cancels the running job, if there is one. Queued jobs still run. */
+    public static void cancelCurrent(Context context) {
+        Intent intent = new Intent(context, ConversionService.class).setAction(ACTION_CANCEL);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    /** Restarts the service if jobs were left unfinished, e.g. by the process being killed. */
+    public static void resumePending(Context context) {
+        if (listJobFiles(getJobsDirectory(context)).length > 0) {
+            ContextCompat.startForegroundService(context, new Intent(context, ConversionService.class));
+        }
+    }
+
+    /** Registers the listener, or unregisters it with null. Call from the main thread. */
+    public static void setListener(Listener newListener) {
+        listener = newListener;
+        if (listener != null) {
+            for (int i = 0; i < undeliveredRequests.size(); i++) {
+                listener.onConversionFinished(undeliveredRequests.get(i), undeliveredOutcomes.get(i));
+            }
+            undeliveredRequests.clear();
+            undeliveredOutcomes.clear();
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Conversions", NotificationManager.IMPORTANCE_LOW);
+            ((NotificationManager) getSystemService(NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        lastStartId = startId;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, buildNotification(), ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        } else {
+            startForeground(NOTIFICATION_ID, buildNotification());
+        }
+
+        if (intent != null && ACTION_CANCEL.equals(intent.getAction()) && currentProgress != null) {
+            currentProgress.cancel();
+        }
+
+        // Every start, fresh or sticky, queues whatever jobs are on disk and not queued yet.
+        for (File jobFile : listJobFiles(getJobsDirectory(this))) {
+            long id = ConversionRequest.getJobId(jobFile);
+            if (id >= 0 && queuedJobs.add(id)) {
+                executor.execute(new JobRunnable(jobFile));
+            }
+        }
+        if (queuedJobs.isEmpty()) {
+            stopSelf(startId);
+        } else {
+            updateNotification();
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mainHandler.removeCallbacks(progressTicker);
+        executor.shutdownNow();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private class JobRunnable implements Runnable {
+        private final File jobFile;
+
+        JobRunnable(File jobFile) {
+            this.jobFile = jobFile;
+        }
+
+        @Override
+        public void run() {
+            final File directory = jobFile.getParentFile();
+            final ConversionRequest request = ConversionRequest.load(jobFile);
+            if (request == null) {
+                jobFile.delete();
+                postFinished(jobFile, null, null);
+                return;
+            }
+            final ConversionProgress progress = new ConversionProgress();
+            mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						currentRequest = request;
+						currentProgress = progress;
+						mainHandler.removeCallbacks(progressTicker);
+						progressTicker.run();
+					}
+				});
+
+            ConversionCheckpoint checkpoint = ConversionCheckpoint.open(request.getCheckpointFile(directory));
+            if (checkpoint.isResumed()) {
+                Log.i(TAG, "Resuming job " + request.getId() + " after " + checkpoint.getDoneCount() + " files");
+            }
+            ConversionRunner.Outcome outcome;
+            try {
+                outcome = new ConversionRunner(ConversionService.this, request, checkpoint, progress, conversionEngine).run();
+            } catch (RuntimeException e) {
+                // A job that fails like this would fail again on every restart; drop it.
+                Log.e(TAG, "Job " + request.getId() + " failed", e);
+                outcome = new ConversionRunner.Outcome(-1, 0, 0, 0, null, null);
+            } finally {
+                checkpoint.close();
+            }
+
+            // A converted project is done. One the user cancelled, or that failed, stays staged
+            // with its URI grants for another try.
+            if (request.isZip()) {
+                ZipListing.release(request.getListingToken(), request.getZipUri());
+            } else if (!outcome.isCancelled() && outcome.getSuccessCount() >= 0) {
+                ProjectStore store = ProjectStore.get(ConversionService.this);
+                store.remove(request.getProjectName(), request.getProjectFileId());
+                if (request.shouldSkipUnchanged()
+                    && request.getOutputMode() == ConversionRequest.OUTPUT_MODE_FILES) {
+                    // The folder now holds this project's manifest; the next incremental run updates it.
+                    store.setOutputFolder(request.getSaveFolderUri(), request.getProjectName(), request.getFolderName());
+                }
+            }
+            request.delete(directory);
+            postFinished(jobFile, request, outcome);
+        }
+    }
+
+    private void postFinished(final File jobFile, final ConversionRequest request, final ConversionRunner.Outcome outcome) {
+        mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					queuedJobs.remove(ConversionRequest.getJobId(jobFile));
+					currentRequest = null;
+					currentProgress = null;
+					mainHandler.removeCallbacks(progressTicker);
+					if (request != null) {
+						if (listener != null) {
+							listener.onConversionFinished(request, outcome);
+						} else {
+							undeliveredRequests.add(request);
+							undeliveredOutcomes.add(outcome);
+						}
+					}
+					if (queuedJobs.isEmpty()) {
+						// Only stops if no start has arrived since; a newer one has queued more jobs.
+						stopForeground(true);
+						stopSelf(lastStartId);
+					} else {
+						updateNotification();
+					}
+				}
+			});
+    }
+
+    private void updateNotification() {
+        ((NotificationManager) getSystemService(NOTIFICATION_SERVICE)).notify(NOTIFICATION_ID, buildNotification());
+    }
+
+    private Notification buildNotification() {
+        Intent openApp = new Intent(this, MainActivity.class);
+        openApp.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        int pendingFlags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            pendingFlags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_stat_convert);
+        int waiting = Math.max(0, queuedJobs.size() - 1);
+        if (currentProgress != null) {
+            String title = "Converting to '" + currentRequest.getFolderName() + "'";
+            if (waiting > 0) {
+                title += " (+" + waiting + " queued)";
+            }
+            if (currentProgress.isCancelled()) {
+                builder.setContentTitle(title)
+                    .setContentText("Cancelling, removing partial output")
+                    .setProgress(0, 0, true);
+            } else {
+                Intent cancel = new Intent(this, ConversionService.class).setAction(ACTION_CANCEL);
+                builder.setContentTitle(title)
+                    .setContentText(currentProgress.describe())
+                    .setSubText(currentProgress.getCurrentFile())
+                    .setProgress(100, currentProgress.getPercent(), false)
+                    .addAction(0, "Cancel", PendingIntent.getService(this, 0, cancel, pendingFlags));
+            }
+        } else {
+            builder.setContentTitle("Preparing conversion")
+                .setContentText(waiting > 0 ? waiting + " more conversion(s) queued" : "Files are converted in the background")
+                .setProgress(0, 0, true);
+        }
+        return builder
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .setPriority(NotificationCompat.PRIORITY_LOW)
+            .setContentIntent(PendingIntent.getActivity(this, 0, openApp, pendingFlags))
+            .build();
+    }
+
+    private static File getJobsDirectory(Context context) {
+        return new File(context.getFilesDir(), JOBS_DIRECTORY);
+    }
+
+    // Saved jobs, oldest first; ids are creation times.
+    private static File[] listJobFiles(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File file) {
+					return file.getName().endsWith(ConversionRequest.JOB_SUFFIX);
+				}
+			});
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,84 @@
+package com.txtify.app;
+
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of the children of one SAF directory, keyed by display name.
+ *
+ * DocumentFile.findFile() re-lists the whole directory on every call, so probing for a free
+ * "-N" name while saving N files costs O(N^2) provider round-trips. This index is filled
+ * with a single children query and then kept up to date by the caller as documents are
+ * created, renamed or deleted, which turns each lookup into a hash probe.
+ */
+public class DirectoryNameIndex {
+
+    private final DocumentHandle directory;
+    private final Map<String, DocumentHandle> entries = new HashMap<>();
+
+    private DirectoryNameIndex(DocumentHandle directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Lists {@code directory} in one query. Returns null if the provider could not be queried.
+     */
+    @Nullable
+    public static DirectoryNameIndex load(DocumentStorage storage, DocumentHandle directory) {
+        List<DocumentHandle> children = storage.listChildren(directory);
+        if (children == null) return null;
+
+        DirectoryNameIndex index = new DirectoryNameIndex(directory);
+        for (DocumentHandle child : children) {
+            if (child.getName() != null) {
+                index.entries.put(child.getName(), child);
+            }
+        }
+        return index;
+    }
+
+    public DocumentHandle getDirectory() {
+        return directory;
+    }
+
+    @Nullable
+    public synchronized DocumentHandle get(String name) {
+        return entries.get(name);
+    }
+
+    public synchronized boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Returns {@code fileName} if it is free, otherwise the first free "base-N.ext" variant.
+     */
+    public synchronized String findFreeCopyName(String fileName) {
+        if (!entries.containsKey(fileName)) {
+            return fileName;
+        }
+        int dot = fileName.lastIndexOf('.');
+        String base = (dot >= 0) ? fileName.substring(0, dot) : fileName;
+        String extension = (dot >= 0) ? fileName.substring(dot) : "";
+        int copy = 1;
+        String candidate;
+        do {
+            candidate = base + "-" + (copy++) + extension;
+        } while (entries.containsKey(candidate));
+        return candidate;
+    }
+
+    public synchronized void put(DocumentHandle document) {
+        entries.put(document.getName(), document);
+    }
+
+    public synchronized void remove(String name) {
+        entries.remove(name);
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+}
@@ -0,0 +1,105 @@
+package com.txtify.app;
+
+import android.os.FileObserver;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recently listed folders of the in-app browser, so going back up or into a sibling shows the
+ * rows at once instead of listing and sorting the folder again.
+ *
+ * Each snapshot remembers the folder's modification time and watches the folder with a
+ * {@link FileObserver} while it is cached. The observer catches changes to the files inside
+ * (which don't touch the folder's time); the time catches anything that happened while no
+ * observer was running. A snapshot is still shown when it may be stale, and the browser
+ * re-reads the folder behind it. The cache is bounded by snapshot count and by total rows, least
+ * recently used first out. Main thread only, apart from the observers.
+ */
+public class DirectorySnapshotCache {
+
+    private static final int MAX_SNAPSHOTS = 32;
+    private static final int MAX_ENTRIES = 100000;
+    private static final int WATCHED_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+        | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE | FileObserver.ATTRIB | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    /** A folder's sorted rows as they were when it was read. */
+    public static class Snapshot {
+        private final File directory;
+        private final long lastModified;
+        private final List<BrowserEntry> entries;
+        private final FileObserver observer;
+        // Set from the observer's thread.
+        private volatile boolean changed;
+
+        Snapshot(File directory, long lastModified, List<BrowserEntry> entries) {
+            this.directory = directory;
+            this.lastModified = lastModified;
+            this.entries = entries;
+            this.observer = new FileObserver(directory.getPath(), WATCHED_EVENTS) {
+				@Override
+				public void onEvent(int event, String path) {
+					changed = true;
+				}
+			};
+        }
+
+        public List<BrowserEntry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * True if neither the observer nor the folder's time shows a change. The time also covers
+         * changes made between reading the folder and the observer starting. This is a stat call,
+         * so not on the main thread.
+         */
+        public boolean isCurrent() {
+            return !changed && directory.lastModified() == lastModified;
+        }
+    }
+
+    private final LinkedHashMap<String, Snapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+    private int entryCount = 0;
+
+    /** The cached snapshot of the folder, or null; marks it as recently used. */
+    public Snapshot get(File directory) {
+        return snapshots.get(directory.getPath());
+    }
+
+    /**
+     * Caches the rows of a folder read when its modification time was {@code lastModified}.
+     * The list must not be changed afterwards.
+     */
+    public void put(File directory, long lastModified, List<BrowserEntry> entries) {
+        Snapshot snapshot = new Snapshot(directory, lastModified, entries);
+        Snapshot previous = snapshots.put(directory.getPath(), snapshot);
+        if (previous != null) {
+            release(previous);
+        }
+        entryCount += entries.size();
+        snapshot.observer.startWatching();
+
+        // The newest snapshot always stays, however large it is.
+        Iterator<Map.Entry<String, Snapshot>> oldest = snapshots.entrySet().iterator();
+        while (snapshots.size() > 1 && (snapshots.size() > MAX_SNAPSHOTS || entryCount > MAX_ENTRIES)) {
+            Snapshot evicted = oldest.next().getValue();
+            oldest.remove();
+            release(evicted);
+        }
+    }
+
+    /** Drops every snapshot and stops watching their folders. */
+    public void clear() {
+        for (Snapshot snapshot : snapshots.values()) {
+            release(snapshot);
+        }
+        snapshots.clear();
+    }
+
+    private void release(Snapshot snapshot) {
+        snapshot.observer.stopWatching();
+        entryCount -= snapshot.entries.size();
+    }
+}
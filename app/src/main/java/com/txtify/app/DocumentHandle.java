@@ -0,0 +1,59 @@
+package com.txtify.app;
+
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+/**
+ * A lightweight, immutable snapshot of one SAF document. Unlike DocumentFile, every attribute
+ * was read in the same cursor row, so asking for the name or type never goes back to the provider.
+ */
+public class DocumentHandle {
+
+    private final Uri uri;
+    private final String documentId;
+    private final String name;
+    private final String mimeType;
+    private final long size;
+    private final long lastModified;
+
+    public DocumentHandle(Uri uri, String documentId, String name, String mimeType, long size, long lastModified) {
+        this.uri = uri;
+        this.documentId = documentId;
+        this.name = name;
+        this.mimeType = mimeType;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isDirectory() {
+        return DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType);
+    }
+
+    public DocumentHandle withName(String newName, Uri newUri) {
+        return new DocumentHandle(newUri, DocumentsContract.getDocumentId(newUri), newName, mimeType, size, lastModified);
+    }
+}
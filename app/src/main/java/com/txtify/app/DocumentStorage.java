@@ -0,0 +1,169 @@
+package com.txtify.app;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin storage-access layer built directly on DocumentsContract.
+ *
+ * DocumentFile issues a separate provider query for nearly every getter. Here a directory
+ * listing is one children query that fetches name, type, size and modification time together,
+ * and the results are kept on {@link DocumentHandle}s.
+ */
+public class DocumentStorage {
+
+    private static final String[] DOCUMENT_PROJECTION = {
+        DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+        DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+        DocumentsContract.Document.COLUMN_MIME_TYPE,
+        DocumentsContract.Document.COLUMN_SIZE,
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    private static final String[] DISPLAY_NAME_PROJECTION = {
+        DocumentsContract.Document.COLUMN_DISPLAY_NAME
+    };
+
+    private final ContentResolver resolver;
+
+    public DocumentStorage(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    public ContentResolver getContentResolver() {
+        return resolver;
+    }
+
+    /**
+     * Returns the root directory of a tree granted through ACTION_OPEN_DOCUMENT_TREE.
+     */
+    @Nullable
+    public DocumentHandle openTree(Uri treeUri) {
+        try {
+            Uri rootUri = DocumentsContract.buildDocumentUriUsingTree(treeUri, DocumentsContract.getTreeDocumentId(treeUri));
+            return query(rootUri);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads every attribute of a single document in one query.
+     */
+    @Nullable
+    public DocumentHandle query(Uri documentUri) {
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(documentUri, DOCUMENT_PROJECTION, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return fromCursor(documentUri, cursor);
+            }
+        } catch (Exception e) {
+            // Treated as missing.
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the children of {@code directory} with a single cursor. Returns null on failure.
+     */
+    @Nullable
+    public List<DocumentHandle> listChildren(DocumentHandle directory) {
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(directory.getUri(), directory.getDocumentId());
+        List<DocumentHandle> children = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(childrenUri, DOCUMENT_PROJECTION, null, null, null);
+            if (cursor == null) return null;
+            while (cursor.moveToNext()) {
+                Uri childUri = DocumentsContract.buildDocumentUriUsingTree(directory.getUri(), cursor.getString(0));
+                children.add(fromCursor(childUri, cursor));
+            }
+        } catch (Exception e) {
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Creates a document and reads back the name the provider gave it, which differs from
+     * {@code displayName} when the provider de-duplicates (e.g. "a (1).txt").
+     */
+    @Nullable
+    public DocumentHandle createDocument(DocumentHandle parent, String mimeType, String displayName) {
+        try {
+            Uri uri = DocumentsContract.createDocument(resolver, parent.getUri(), mimeType, displayName);
+            if (uri == null) return null;
+            String name = queryDisplayName(uri);
+            return new DocumentHandle(uri, DocumentsContract.getDocumentId(uri), (name != null) ? name : displayName,
+                mimeType, 0, System.currentTimeMillis());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    public DocumentHandle createDirectory(DocumentHandle parent, String displayName) {
+        return createDocument(parent, DocumentsContract.Document.MIME_TYPE_DIR, displayName);
+    }
+
+    @Nullable
+    public DocumentHandle rename(DocumentHandle document, String newName) {
+        try {
+            Uri renamedUri = DocumentsContract.renameDocument(resolver, document.getUri(), newName);
+            // Some providers rename in place and return null.
+            return document.withName(newName, renamedUri != null ? renamedUri : document.getUri());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public boolean delete(DocumentHandle document) {
+        try {
+            return DocumentsContract.deleteDocument(resolver, document.getUri());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Nullable
+    private String queryDisplayName(Uri documentUri) {
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(documentUri, DISPLAY_NAME_PROJECTION, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        } catch (Exception e) {
+            // Unknown; the caller keeps the name it asked for.
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return null;
+    }
+
+    private static DocumentHandle fromCursor(Uri uri, Cursor cursor) {
+        return new DocumentHandle(
+            uri,
+            cursor.getString(0),
+            cursor.getString(1),
+            cursor.getString(2),
+            cursor.isNull(3) ? -1 : cursor.getLong(3),
+            cursor.isNull(4) ? 0 : cursor.getLong(4));
+    }
+}
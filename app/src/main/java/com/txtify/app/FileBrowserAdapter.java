@@ -11,65 +11,160 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class FileBrowserAdapter extends RecyclerView.Adapter<FileBrowserAdapter.ViewHolder> {
 
-    private final List<File> files;
+    // Replaced, never changed in place, so a list handed out by getEntries() stays as it was.
+    private List<BrowserEntry> entries = Collections.emptyList();
     private final Context context;
     private OnItemClickListener clickListener;
     private OnDragStartListener dragListener;
+    private OnFolderLongClickListener folderLongClickListener;
 
-    // MODIFIED: This is now a reference to the master set from the Fragment.
-    private final Set<File> selectedFiles;
+    // MODIFIED: This is now a reference to the master selection from the Fragment, looked up
+    // by the id of the folder being shown and the row's name.
+    private final FileSelection selectedFiles;
+    private int folderId = -1;
     private final int selectionColor;
 
 
     public interface OnItemClickListener {
-        void onItemClick(File file);
+        void onItemClick(BrowserEntry entry);
     }
 
     public interface OnDragStartListener {
         void onDragStarted();
     }
 
-    // MODIFIED: Constructor now accepts the master selection set.
-    public FileBrowserAdapter(Context context, List<File> files, Set<File> selectedFiles, OnItemClickListener clickListener, OnDragStartListener dragListener) {
+    public interface OnFolderLongClickListener {
+        void onFolderLongClick(BrowserEntry entry);
+    }
+
+    // MODIFIED: Constructor now accepts the master selection set. The list starts empty; one
+    // adapter serves every folder the browser visits.
+    public FileBrowserAdapter(Context context, FileSelection selectedFiles, OnItemClickListener clickListener, OnDragStartListener dragListener) {
         this.context = context;
-        this.files = files;
         this.selectedFiles = selectedFiles; // Use the passed-in master set.
         this.clickListener = clickListener;
         this.dragListener = dragListener;
 
         // A semi-transparent version of the accent color for highlighting selections.
         this.selectionColor = 0x5000ACC1;
+    }
+
+    public void setOnFolderLongClickListener(OnFolderLongClickListener listener) {
+        this.folderLongClickListener = listener;
+    }
+
+    /** The rows shown, sorted; the list is not changed afterwards. */
+    public List<BrowserEntry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Shows another folder's rows, or none. {@code newEntries} must be sorted and not change;
+     * {@code newFolderId} is the folder's id in the selection.
+     */
+    public void setEntries(int newFolderId, List<BrowserEntry> newEntries) {
+        folderId = newFolderId;
+        entries = newEntries;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Shows an updated listing of the same folder, announcing only what changed. The diff must
+     * have been computed with {@link #diff} from the list currently shown.
+     */
+    public void applyEntries(List<BrowserEntry> newEntries, DiffUtil.DiffResult diff) {
+        entries = newEntries;
+        diff.dispatchUpdatesTo(this);
+    }
 
-        Collections.sort(this.files, new Comparator<File>() {
+    /**
+     * Differences between two sorted listings of a folder, by name and then by cached type, size
+     * and time. Compute it off the main thread; huge folders take a while.
+     */
+    public static DiffUtil.DiffResult diff(final List<BrowserEntry> oldEntries, final List<BrowserEntry> newEntries) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
 				@Override
-				public int compare(File f1, File f2) {
-					if (f1.isDirectory() && !f2.isDirectory()) {
-						return -1;
-					} else if (!f1.isDirectory() && f2.isDirectory()) {
-						return 1;
-					} else {
-						return f1.getName().compareToIgnoreCase(f2.getName());
-					}
+				public int getOldListSize() {
+					return oldEntries.size();
+				}
+
+				@Override
+				public int getNewListSize() {
+					return newEntries.size();
+				}
+
+				@Override
+				public boolean areItemsTheSame(int oldPosition, int newPosition) {
+					return oldEntries.get(oldPosition).getName().equals(newEntries.get(newPosition).getName());
+				}
+
+				@Override
+				public boolean areContentsTheSame(int oldPosition, int newPosition) {
+					BrowserEntry oldEntry = oldEntries.get(oldPosition);
+					BrowserEntry newEntry = newEntries.get(newPosition);
+					return oldEntry.isDirectory() == newEntry.isDirectory()
+						&& oldEntry.getSize() == newEntry.getSize()
+						&& oldEntry.getLastModified() == newEntry.getLastModified();
 				}
-			});
+			}, false); // Both lists are sorted the same way, so nothing moves.
+    }
+
+    /**
+     * Merges a page of a folder listing into the sorted list. Rows already on screen stay where
+     * they are relative to each other, and only the inserted ranges are announced, so scrolling
+     * and the first screenful are not disturbed by later pages.
+     */
+    public void addEntries(List<BrowserEntry> page) {
+        Collections.sort(page, BrowserEntry.DISPLAY_ORDER);
+        if (entries.isEmpty()) {
+            entries = new ArrayList<>(page);
+            notifyItemRangeInserted(0, page.size());
+            return;
+        }
+
+        List<BrowserEntry> merged = new ArrayList<>(entries.size() + page.size());
+        // Start and length of each run of new rows, in ascending order of final position.
+        List<int[]> insertedRuns = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (j < page.size()) {
+            if (i < entries.size() && BrowserEntry.DISPLAY_ORDER.compare(entries.get(i), page.get(j)) <= 0) {
+                merged.add(entries.get(i++));
+            } else {
+                int position = merged.size();
+                merged.add(page.get(j++));
+                int[] last = insertedRuns.isEmpty() ? null : insertedRuns.get(insertedRuns.size() - 1);
+                if (last != null && last[0] + last[1] == position) {
+                    last[1]++;
+                } else {
+                    insertedRuns.add(new int[] { position, 1 });
+                }
+            }
+        }
+        while (i < entries.size()) {
+            merged.add(entries.get(i++));
+        }
+
+        entries = merged;
+        for (int[] run : insertedRuns) {
+            notifyItemRangeInserted(run[0], run[1]);
+        }
     }
 
     // This method adds all files (not directories) from the CURRENT list to the master set.
     public void selectAllFiles() {
-        for (File file : files) {
-            if (!file.isDirectory()) {
-                selectedFiles.add(file);
+        for (BrowserEntry entry : entries) {
+            if (!entry.isDirectory()) {
+                selectedFiles.add(folderId, entry.getName());
             }
         }
         notifyDataSetChanged(); // Redraw the entire list to show selections.
@@ -91,13 +186,12 @@ public class FileBrowserAdapter extends RecyclerView.Adapter<FileBrowserAdapter.
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        File file = files.get(position);
-        holder.bind(file, clickListener, dragListener);
+        holder.bind(entries.get(position), clickListener, dragListener);
     }
 
     @Override
     public int getItemCount() {
-        return files.size();
+        return entries.size();
     }
 
     // The ViewHolder class needs to be an inner class to access adapter members like selectedFiles.
@@ -111,17 +205,19 @@ public class FileBrowserAdapter extends RecyclerView.Adapter<FileBrowserAdapter.
             name = itemView.findViewById(R.id.text_file_name);
         }
 
-        public void bind(final File file, final OnItemClickListener clickListener, final OnDragStartListener dragListener) {
-            name.setText(file.getName());
+        public void bind(final BrowserEntry entry, final OnItemClickListener clickListener, final OnDragStartListener dragListener) {
+            final File file = entry.getFile();
+            final String fileName = entry.getName();
+            name.setText(fileName);
 
-            if (file.isDirectory()) {
+            if (entry.isDirectory()) {
                 icon.setImageResource(R.drawable.ic_menu_browse);
             } else {
                 icon.setImageResource(R.drawable.ic_file_generic);
             }
 
             // Set the background color based on selection state (using the master set).
-            if (selectedFiles.contains(file)) {
+            if (selectedFiles.contains(folderId, fileName)) {
                 itemView.setBackgroundColor(selectionColor);
             } else {
                 itemView.setBackgroundColor(Color.TRANSPARENT);
@@ -131,15 +227,13 @@ public class FileBrowserAdapter extends RecyclerView.Adapter<FileBrowserAdapter.
             itemView.setOnClickListener(new View.OnClickListener() {
 					@Override
 					public void onClick(View v) {
-						if (file.isDirectory()) {
+						if (entry.isDirectory()) {
 							// Clicking a directory still navigates.
-							clickListener.onItemClick(file);
+							clickListener.onItemClick(entry);
 						} else {
 							// Clicking a file toggles its selection in the master set.
-							if (selectedFiles.contains(file)) {
-								selectedFiles.remove(file);
-							} else {
-								selectedFiles.add(file);
+							if (!selectedFiles.remove(folderId, fileName)) {
+								selectedFiles.add(folderId, fileName);
 							}
 							// Redraw this specific item to update its background.
 							notifyItemChanged(getAdapterPosition());
@@ -148,35 +242,21 @@ public class FileBrowserAdapter extends RecyclerView.Adapter<FileBrowserAdapter.
 				});
 
             // Long click initiates a drag. This functionality is preserved.
-            if (!file.isDirectory()) {
+            if (!entry.isDirectory()) {
                 itemView.setOnLongClickListener(new View.OnLongClickListener() {
 						@Override
 						public boolean onLongClick(View v) {
-							List<File> filesToDrag = new ArrayList<>();
-
 							// If other files are selected, drag the whole selection.
 							// Otherwise, just drag the file that was long-pressed.
-							if (!selectedFiles.isEmpty() && selectedFiles.contains(file)) {
-								filesToDrag.addAll(selectedFiles);
+							// Either way it is a single string of paths, separated by a newline.
+							String paths;
+							if (selectedFiles.contains(folderId, fileName)) {
+								paths = selectedFiles.joinPaths("\n");
 							} else {
-								filesToDrag.add(file);
-							}
-
-							// If no files are ready to be dragged, do nothing.
-							if (filesToDrag.isEmpty()) {
-								return false;
-							}
-
-							// Build a single string with all file paths, separated by a newline.
-							StringBuilder paths = new StringBuilder();
-							for (int i = 0; i < filesToDrag.size(); i++) {
-								paths.append(filesToDrag.get(i).getAbsolutePath());
-								if (i < filesToDrag.size() - 1) {
-									paths.append("\n");
-								}
+								paths = file.getAbsolutePath();
 							}
 
-							ClipData.Item item = new ClipData.Item(paths.toString());
+							ClipData.Item item = new ClipData.Item(paths);
 							ClipData dragData = new ClipData(
 								"file_paths", // Note plural label
 								new String[]{"text/plain"},
@@ -199,6 +279,15 @@ public class FileBrowserAdapter extends RecyclerView.Adapter<FileBrowserAdapter.
 							return true; 
 						}
 					});
+            } else if (folderLongClickListener != null) {
+                // Long click on a folder offers to select everything inside it.
+                itemView.setOnLongClickListener(new View.OnLongClickListener() {
+						@Override
+						public boolean onLongClick(View v) {
+							folderLongClickListener.onFolderLongClick(entry);
+							return true;
+						}
+					});
             } else {
                 itemView.setOnLongClickListener(null);
             }
@@ -4,39 +4,52 @@ import android.Manifest;
 import android.app.Dialog;
 import android.content.DialogInterface;
 import android.content.pm.PackageManager;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.DialogFragment;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.File;
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
 
 public class FileBrowserDialogFragment extends DialogFragment {
 
     // MODIFIED: Updated callback interface
     public interface FileBrowserCallbacks {
-        void onFilesAdded(ArrayList<File> files);
+        /** The selection is cleared once this returns; copy out what is needed. */
+        void onFilesAdded(FileSelection files);
         void onBrowserClosed();
     }
 
     private static final int PERMISSIONS_REQUEST_READ_STORAGE = 201;
+    private static final int FIRST_PAGE_SIZE = 50;
+    private static final int PAGE_SIZE = 500;
+    // Matches of a recursive selection are moved into the selection at this rate.
+    private static final long WALK_UPDATE_INTERVAL_MS = 250;
 
     private RecyclerView recyclerView;
     private TextView currentPathText;
@@ -46,13 +59,28 @@ public class FileBrowserDialogFragment extends DialogFragment {
     private Button selectAllButton;
     private Button clearSelectionButton;
     private Button closeButton; // NEW
+    private TextView walkStatusText;
 
     private File currentDirectory;
     private FileBrowserCallbacks callbacks;
     private FileBrowserAdapter adapter;
+    private AsyncTask<File, ?, ?> listTask;
+    private final DirectorySnapshotCache snapshotCache = new DirectorySnapshotCache();
+
+    // The running recursive selection, if any, and what was typed for the last one.
+    private FolderWalker walker;
+    private String walkFolderName;
+    private String lastGlobFilter = "";
+    private final Handler walkHandler = new Handler(Looper.getMainLooper());
+    private final Runnable walkTicker = new Runnable() {
+		@Override
+		public void run() {
+			updateWalk();
+		}
+	};
 
     // NEW: The fragment now owns the master set of selected files.
-    private Set<File> selectedFiles = new HashSet<>();
+    private final FileSelection selectedFiles = new FileSelection();
 
     public static FileBrowserDialogFragment newInstance() {
         return new FileBrowserDialogFragment();
@@ -99,9 +127,36 @@ public class FileBrowserDialogFragment extends DialogFragment {
         selectAllButton = view.findViewById(R.id.button_select_all);
         clearSelectionButton = view.findViewById(R.id.button_clear_selection);
         closeButton = view.findViewById(R.id.button_close_browser); // NEW
+        walkStatusText = view.findViewById(R.id.text_walk_status);
 
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
 
+        // One adapter for every folder; navigation only swaps its rows.
+        adapter = new FileBrowserAdapter(getContext(), selectedFiles,
+            new FileBrowserAdapter.OnItemClickListener() {
+                @Override
+                public void onItemClick(BrowserEntry entry) {
+                    if (entry.isDirectory()) {
+                        navigateTo(entry.getFile());
+                    }
+                    // A short click on a file now toggles selection (handled in adapter)
+                }
+            },
+            new FileBrowserAdapter.OnDragStartListener() {
+                @Override
+                public void onDragStarted() {
+                    dismiss(); // Dismiss the dialog if a drag is started.
+                }
+            }
+        );
+        adapter.setOnFolderLongClickListener(new FileBrowserAdapter.OnFolderLongClickListener() {
+				@Override
+				public void onFolderLongClick(BrowserEntry entry) {
+					showRecursiveSelectDialog(entry.getFile());
+				}
+			});
+        recyclerView.setAdapter(adapter);
+
         upButton.setOnClickListener(new View.OnClickListener() {
 				@Override
 				public void onClick(View v) {
@@ -116,7 +171,7 @@ public class FileBrowserDialogFragment extends DialogFragment {
 				@Override
 				public void onClick(View v) {
 					if (callbacks != null && !selectedFiles.isEmpty()) {
-						callbacks.onFilesAdded(new ArrayList<>(selectedFiles));
+						callbacks.onFilesAdded(selectedFiles);
 						if (adapter != null) {
 							adapter.clearSelection();
 						}
@@ -143,6 +198,26 @@ public class FileBrowserDialogFragment extends DialogFragment {
 				}
 			});
 
+        // Long press selects the current folder's whole tree.
+        selectAllButton.setOnLongClickListener(new View.OnLongClickListener() {
+				@Override
+				public boolean onLongClick(View v) {
+					if (currentDirectory != null) {
+						showRecursiveSelectDialog(currentDirectory);
+					}
+					return true;
+				}
+			});
+
+        walkStatusText.setOnClickListener(new View.OnClickListener() {
+				@Override
+				public void onClick(View v) {
+					if (walker != null) {
+						walker.cancel();
+					}
+				}
+			});
+
         clearSelectionButton.setOnClickListener(new View.OnClickListener() {
 				@Override
 				public void onClick(View v) {
@@ -158,6 +233,16 @@ public class FileBrowserDialogFragment extends DialogFragment {
     @Override
     public void onDismiss(@NonNull DialogInterface dialog) {
         super.onDismiss(dialog);
+        if (listTask != null) {
+            listTask.cancel(false);
+            listTask = null;
+        }
+        snapshotCache.clear();
+        if (walker != null) {
+            walker.cancel();
+            walker = null;
+        }
+        walkHandler.removeCallbacks(walkTicker);
         // MODIFIED: Use the new callback method
         if (callbacks != null) {
             callbacks.onBrowserClosed();
@@ -172,43 +257,203 @@ public class FileBrowserDialogFragment extends DialogFragment {
 
         currentDirectory = directory;
         currentPathText.setText(directory.getAbsolutePath());
-
-        File[] filesArray = directory.listFiles();
-        List<File> files;
-        if (filesArray != null) {
-            files = new ArrayList<>(Arrays.asList(filesArray));
-        } else {
-            files = new ArrayList<>();
+        if (listTask != null) {
+            listTask.cancel(false);
         }
 
-        if (files.isEmpty()) {
-            emptyFolderText.setVisibility(View.VISIBLE);
-            recyclerView.setVisibility(View.GONE);
+        // A folder seen recently shows at once and is re-read behind the cached rows; any
+        // other folder is read in the background and its rows arrive in pages.
+        int folderId = selectedFiles.getFolderId(directory.getPath());
+        DirectorySnapshotCache.Snapshot snapshot = snapshotCache.get(directory);
+        if (snapshot != null) {
+            adapter.setEntries(folderId, snapshot.getEntries());
+            listTask = new RefreshDirectoryTask(snapshot).execute(directory);
         } else {
-            emptyFolderText.setVisibility(View.GONE);
-            recyclerView.setVisibility(View.VISIBLE);
+            adapter.setEntries(folderId, Collections.<BrowserEntry>emptyList());
+            listTask = new ListDirectoryTask().execute(directory);
         }
+        recyclerView.scrollToPosition(0);
+        updateEmptyState(snapshot == null);
+    }
 
-        // MODIFIED: Pass the master selectedFiles set to the adapter's constructor.
-        adapter = new FileBrowserAdapter(getContext(), files, selectedFiles,
-            new FileBrowserAdapter.OnItemClickListener() {
+    private void showRecursiveSelectDialog(final File folder) {
+        View view = LayoutInflater.from(getContext()).inflate(R.layout.dialog_glob_filter, null);
+        final EditText input = view.findViewById(R.id.edit_text_glob_filter);
+        input.setText(lastGlobFilter);
+        new AlertDialog.Builder(getContext())
+            .setTitle("Select '" + folder.getName() + "' Recursively")
+            .setView(view)
+            .setPositiveButton("Select", new DialogInterface.OnClickListener() {
                 @Override
-                public void onItemClick(File file) {
-                    if (file.isDirectory()) {
-                        navigateTo(file);
-                    }
-                    // A short click on a file now toggles selection (handled in adapter)
+                public void onClick(DialogInterface dialog, int which) {
+                    lastGlobFilter = input.getText().toString().trim();
+                    startWalk(folder, GlobFilter.parse(lastGlobFilter));
                 }
-            },
-            new FileBrowserAdapter.OnDragStartListener() {
-                @Override
-                public void onDragStarted() {
-                    dismiss(); // Dismiss the dialog if a drag is started.
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+
+    // Walks the tree in the background; matches stream into the selection from walkTicker.
+    private void startWalk(File folder, GlobFilter filter) {
+        if (walker != null) {
+            walker.cancel();
+            updateWalk(); // Keeps what the previous walk found.
+        }
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        walker = new FolderWalker(folder, filter, threads);
+        walkFolderName = folder.getName();
+        walker.start();
+        walkStatusText.setVisibility(View.VISIBLE);
+        walkHandler.removeCallbacks(walkTicker);
+        walkHandler.post(walkTicker);
+    }
+
+    private void updateWalk() {
+        if (walker == null) return;
+        if (walker.drainMatches(selectedFiles) > 0) {
+            adapter.notifyDataSetChanged();
+        }
+        if (!walker.isFinished()) {
+            walkStatusText.setText(String.format("Selecting from '%s': %d files in %d folders... Tap to stop.",
+                walkFolderName, walker.getMatchCount(), walker.getFolderCount()));
+            walkHandler.postDelayed(walkTicker, WALK_UPDATE_INTERVAL_MS);
+            return;
+        }
+        walkHandler.removeCallbacks(walkTicker);
+        walkStatusText.setVisibility(View.GONE);
+        String message = walker.isCancelled()
+            ? String.format("Stopped. %d files from '%s' were selected.", walker.getMatchCount(), walkFolderName)
+            : String.format("Selected %d files from '%s'.", walker.getMatchCount(), walkFolderName);
+        Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+        walker = null;
+    }
+
+    private void updateEmptyState(boolean loading) {
+        boolean empty = !loading && adapter.getItemCount() == 0;
+        emptyFolderText.setVisibility(empty ? View.VISIBLE : View.GONE);
+        recyclerView.setVisibility(empty ? View.GONE : View.VISIBLE);
+    }
+
+    // The folder's names as sort keys, in display order; null if it can't be read.
+    @Nullable
+    private static CollationKey[] readSortedKeys(File directory) {
+        String[] names = directory.list();
+        if (names == null) return null;
+        Collator collator = BrowserEntry.newCollator();
+        CollationKey[] keys = new CollationKey[names.length];
+        for (int i = 0; i < names.length; i++) {
+            keys[i] = collator.getCollationKey(names[i]);
+        }
+        Arrays.sort(keys, new Comparator<CollationKey>() {
+				@Override
+				public int compare(CollationKey k1, CollationKey k2) {
+					return BrowserEntry.compareKeys(k1, k2);
+				}
+			});
+        return keys;
+    }
+
+    /**
+     * Reads a folder off the UI thread: one call for the names, then one stat per entry for its
+     * type, size and time. Rows are handed over in pages, a small first one so the top of the
+     * list shows at once. Names are read in display order (by their collation keys, which the
+     * entries keep for the adapter's sort), so each page mostly appends. The finished listing
+     * goes into the snapshot cache.
+     */
+    private class ListDirectoryTask extends AsyncTask<File, List<BrowserEntry>, Boolean> {
+        private File directory;
+        private long lastModified;
+
+        @Override
+        protected Boolean doInBackground(File... directories) {
+            directory = directories[0];
+            // Taken first, so a change made while listing makes the snapshot out of date.
+            lastModified = directory.lastModified();
+            CollationKey[] keys = readSortedKeys(directory);
+            if (keys == null) return false;
+
+            int pageSize = FIRST_PAGE_SIZE;
+            List<BrowserEntry> page = new ArrayList<>(pageSize);
+            for (CollationKey key : keys) {
+                page.add(BrowserEntry.stat(directory, key));
+                if (page.size() == pageSize) {
+                    if (isCancelled()) return false;
+                    publishProgress(page);
+                    pageSize = PAGE_SIZE;
+                    page = new ArrayList<>(pageSize);
                 }
             }
-        );
+            if (!page.isEmpty()) {
+                publishProgress(page);
+            }
+            return true;
+        }
 
-        recyclerView.setAdapter(adapter);
+        @Override
+        protected void onProgressUpdate(List<BrowserEntry>... pages) {
+            // Pages already posted can still arrive after the user has moved on.
+            if (!isCancelled()) {
+                adapter.addEntries(pages[0]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean listed) {
+            if (listTask == this) {
+                listTask = null;
+            }
+            if (listed) {
+                snapshotCache.put(directory, lastModified, adapter.getEntries());
+            } else {
+                Toast.makeText(getContext(), "Cannot access this folder.", Toast.LENGTH_SHORT).show();
+            }
+            updateEmptyState(false);
+        }
+    }
+
+    /**
+     * Checks a cached folder against the disk and, if it changed, reads it again in one go and
+     * applies only the differences to the rows already on screen.
+     */
+    private class RefreshDirectoryTask extends AsyncTask<File, Void, Boolean> {
+        private final DirectorySnapshotCache.Snapshot snapshot;
+        private File directory;
+        private long lastModified;
+        private List<BrowserEntry> entries;
+        private DiffUtil.DiffResult diff;
+
+        RefreshDirectoryTask(DirectorySnapshotCache.Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        protected Boolean doInBackground(File... directories) {
+            directory = directories[0];
+            if (snapshot.isCurrent()) return false;
+            lastModified = directory.lastModified();
+            CollationKey[] keys = readSortedKeys(directory);
+            if (keys == null) return false;
+            entries = new ArrayList<>(keys.length);
+            for (CollationKey key : keys) {
+                entries.add(BrowserEntry.stat(directory, key));
+                if (isCancelled()) return false;
+            }
+            diff = FileBrowserAdapter.diff(snapshot.getEntries(), entries);
+            return true;
+        }
+
+        @Override
+        protected void onPostExecute(Boolean changed) {
+            if (listTask == this) {
+                listTask = null;
+            }
+            if (changed) {
+                snapshotCache.put(directory, lastModified, entries);
+                adapter.applyEntries(entries, diff);
+                updateEmptyState(false);
+            }
+        }
     }
 
     private void checkAndRequestPermissions() {
@@ -0,0 +1,130 @@
+package com.txtify.app;
+
+import android.net.Uri;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The files picked in the in-app browser, kept as names under interned folder ids rather than as
+ * {@link File}s.
+ *
+ * A folder's path is stored and hashed once, when it first gets an id; after that a file is just
+ * its name in the folder's set. The names are the strings the listing already holds, with their
+ * hash cached, so the membership check made for every bound row costs no path building or
+ * hashing. Tens of thousands of selected files cost a name reference each instead of a File and
+ * a full path string. Main thread only.
+ */
+public class FileSelection {
+
+    // Folder paths by id; an id is never reused while the selection lives.
+    private final List<String> folderPaths = new ArrayList<>();
+    private final Map<String, Integer> folderIds = new HashMap<>();
+    // Selected names by folder id; null until something in the folder is selected.
+    private final List<Set<String>> selectedNames = new ArrayList<>();
+    private int size = 0;
+
+    /** The id of a folder, given out on first use. Look it up once per folder, not per file. */
+    public int getFolderId(String folderPath) {
+        Integer id = folderIds.get(folderPath);
+        if (id == null) {
+            id = folderPaths.size();
+            folderPaths.add(folderPath);
+            selectedNames.add(null);
+            folderIds.put(folderPath, id);
+        }
+        return id;
+    }
+
+    public boolean contains(int folderId, String name) {
+        Set<String> names = selectedNames.get(folderId);
+        return names != null && names.contains(name);
+    }
+
+    public boolean add(int folderId, String name) {
+        Set<String> names = selectedNames.get(folderId);
+        if (names == null) {
+            names = new HashSet<>();
+            selectedNames.set(folderId, names);
+        }
+        if (names.add(name)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean remove(int folderId, String name) {
+        Set<String> names = selectedNames.get(folderId);
+        if (names != null && names.remove(name)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /** Adds a batch of names from one folder; returns how many were new. */
+    public int addAll(String folderPath, Collection<String> names) {
+        int folderId = getFolderId(folderPath);
+        int added = 0;
+        for (String name : names) {
+            if (add(folderId, name)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < selectedNames.size(); i++) {
+            selectedNames.set(i, null);
+        }
+        size = 0;
+    }
+
+    /** Appends a file Uri for every selected file, folder by folder. */
+    public void addUrisTo(Collection<Uri> target) {
+        for (int id = 0; id < folderPaths.size(); id++) {
+            Set<String> names = selectedNames.get(id);
+            if (names == null) {
+                continue;
+            }
+            File folder = new File(folderPaths.get(id));
+            for (String name : names) {
+                target.add(Uri.fromFile(new File(folder, name)));
+            }
+        }
+    }
+
+    /** The absolute paths of all selected files, joined with {@code separator}. */
+    public String joinPaths(String separator) {
+        StringBuilder paths = new StringBuilder();
+        for (int id = 0; id < folderPaths.size(); id++) {
+            Set<String> names = selectedNames.get(id);
+            if (names == null) {
+                continue;
+            }
+            String folderPath = folderPaths.get(id);
+            for (String name : names) {
+                if (paths.length() > 0) {
+                    paths.append(separator);
+                }
+                paths.append(folderPath).append(File.separatorChar).append(name);
+            }
+        }
+        return paths.toString();
+    }
+}
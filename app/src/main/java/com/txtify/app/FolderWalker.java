@@ -0,0 +1,165 @@
+package com.txtify.app;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the files of a whole folder tree that pass a {@link GlobFilter}, on a small pool of
+ * threads, one task per folder.
+ *
+ * Matches are queued as a batch of names per folder and the caller drains them into a
+ * {@link FileSelection} on its own schedule, so a tree of 100k files costs the UI thread a few
+ * batched updates rather than one call, or one File, per file. Each entry is read with a single
+ * lstat, and linked folders are not followed, so a link back up the tree can't make the walk go
+ * round in circles. The walk stops early when cancelled.
+ */
+public class FolderWalker {
+
+    private static final String TAG = "FolderWalker";
+
+    private final File root;
+    private final GlobFilter filter;
+    private final ExecutorService executor;
+    private final Queue<Batch> matches = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger matchCount = new AtomicInteger();
+    private final AtomicInteger folderCount = new AtomicInteger();
+    // Folders queued or being read; the walk is over when it drops to zero.
+    private final AtomicInteger pendingFolders = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+
+    // Matching names found in one folder.
+    private static class Batch {
+        final String folderPath;
+        final List<String> names;
+
+        Batch(String folderPath, List<String> names) {
+            this.folderPath = folderPath;
+            this.names = names;
+        }
+    }
+
+    public FolderWalker(File root, GlobFilter filter, int threadCount) {
+        this.root = root;
+        this.filter = filter;
+        this.executor = Executors.newFixedThreadPool(threadCount);
+    }
+
+    /** Starts the walk in the background. */
+    public void start() {
+        submit(root, "");
+    }
+
+    /** Stops the walk; folders being read are abandoned at the next entry. */
+    public void cancel() {
+        cancelled = true;
+        executor.shutdownNow();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** True once every folder has been read, or the walk was cancelled. */
+    public boolean isFinished() {
+        return finished || cancelled;
+    }
+
+    public int getMatchCount() {
+        return matchCount.get();
+    }
+
+    public int getFolderCount() {
+        return folderCount.get();
+    }
+
+    /**
+     * Moves the matches found since the last call into {@code target}; returns how many were
+     * not selected already. Call from the thread that owns the selection.
+     */
+    public int drainMatches(FileSelection target) {
+        int added = 0;
+        Batch batch;
+        while ((batch = matches.poll()) != null) {
+            added += target.addAll(batch.folderPath, batch.names);
+        }
+        return added;
+    }
+
+    private void submit(final File folder, final String relativePath) {
+        pendingFolders.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							walkFolder(folder, relativePath);
+						} finally {
+							folderDone();
+						}
+					}
+				});
+        } catch (RejectedExecutionException e) {
+            // Cancelled in the meantime.
+            folderDone();
+        }
+    }
+
+    private void folderDone() {
+        if (pendingFolders.decrementAndGet() == 0) {
+            finished = true;
+            executor.shutdown();
+        }
+    }
+
+    private void walkFolder(File folder, String relativePath) {
+        folderCount.incrementAndGet();
+        String[] names = folder.list();
+        if (names == null) {
+            return; // Unreadable, e.g. another app's private folder.
+        }
+        String prefix = relativePath.isEmpty() ? "" : relativePath + "/";
+        List<String> found = new ArrayList<>();
+        for (String name : names) {
+            if (cancelled) {
+                return;
+            }
+            File file = new File(folder, name);
+            String path = prefix + name;
+            try {
+                StructStat stat = Os.lstat(file.getPath());
+                if (OsConstants.S_ISDIR(stat.st_mode)) {
+                    if (filter.acceptsFolder(name, path)) {
+                        submit(file, path);
+                    }
+                    continue;
+                }
+                if (OsConstants.S_ISLNK(stat.st_mode)) {
+                    // A link is collected only when it leads to a regular file.
+                    stat = Os.stat(file.getPath());
+                }
+                if (OsConstants.S_ISREG(stat.st_mode) && filter.acceptsFile(name, path)) {
+                    found.add(name);
+                }
+            } catch (ErrnoException e) {
+                Log.d(TAG, "Skipping " + path + ": " + e.getMessage());
+            }
+        }
+        if (!found.isEmpty()) {
+            matches.add(new Batch(folder.getPath(), found));
+            matchCount.addAndGet(found.size());
+        }
+    }
+}
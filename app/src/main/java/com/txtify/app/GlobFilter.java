@@ -0,0 +1,127 @@
+package com.txtify.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude patterns for collecting a folder tree, written like
+ * {@code *.java *.xml !build/ !*.min.js}.
+ *
+ * A pattern starting with "!" excludes, any other includes; with no include patterns every file
+ * is included. A pattern ending in "/" applies to folders, and an excluded folder is not entered
+ * at all. A pattern without a "/" inside is matched against the name, one with a "/" against the
+ * path relative to the folder being collected. "*" and "?" stay within one path segment, "**"
+ * crosses them, and "**" followed by a "/" stands for zero or more folders, as in .gitignore.
+ * Matching is case-sensitive, like the filesystem.
+ */
+public class GlobFilter {
+
+    private final List<Rule> includeFiles = new ArrayList<>();
+    private final List<Rule> excludeFiles = new ArrayList<>();
+    private final List<Rule> excludeFolders = new ArrayList<>();
+
+    private static class Rule {
+        final Pattern pattern;
+        final boolean matchesPath;
+
+        Rule(Pattern pattern, boolean matchesPath) {
+            this.pattern = pattern;
+            this.matchesPath = matchesPath;
+        }
+
+        boolean matches(String name, String relativePath) {
+            return pattern.matcher(matchesPath ? relativePath : name).matches();
+        }
+    }
+
+    /** Parses patterns separated by spaces or commas; an empty string includes everything. */
+    public static GlobFilter parse(String patterns) {
+        GlobFilter filter = new GlobFilter();
+        for (String token : patterns.trim().split("[\\s,]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            boolean exclude = token.startsWith("!");
+            if (exclude) {
+                token = token.substring(1);
+            }
+            boolean folder = token.endsWith("/");
+            if (folder) {
+                token = token.substring(0, token.length() - 1);
+            }
+            if (token.startsWith("/")) {
+                token = token.substring(1); // Anchored at the collected folder, which paths are relative to anyway.
+            }
+            if (token.isEmpty()) {
+                continue;
+            }
+            Rule rule = new Rule(toPattern(token), token.contains("/"));
+            if (folder) {
+                // Including a folder by pattern is not supported; everything not excluded is entered.
+                if (exclude) {
+                    filter.excludeFolders.add(rule);
+                }
+            } else if (exclude) {
+                filter.excludeFiles.add(rule);
+            } else {
+                filter.includeFiles.add(rule);
+            }
+        }
+        return filter;
+    }
+
+    /** True if the walk should go into this folder. */
+    public boolean acceptsFolder(String name, String relativePath) {
+        return !anyMatches(excludeFolders, name, relativePath);
+    }
+
+    public boolean acceptsFile(String name, String relativePath) {
+        if (anyMatches(excludeFiles, name, relativePath)) {
+            return false;
+        }
+        return includeFiles.isEmpty() || anyMatches(includeFiles, name, relativePath);
+    }
+
+    private static boolean anyMatches(List<Rule> rules, String name, String relativePath) {
+        for (Rule rule : rules) {
+            if (rule.matches(name, relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Translates a glob into an anchored regular expression; everything but the wildcards is literal.
+    private static Pattern toPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c != '*' && c != '?') {
+                literal.append(c);
+                continue;
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            if (c == '?') {
+                regex.append("[^/]");
+            } else if (glob.startsWith("**/", i)) {
+                // Any number of folders, including none: "src/**/*.kt" also matches "src/B.kt".
+                regex.append("(?:.*/)?");
+                i += 2;
+            } else if (glob.startsWith("**", i)) {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^/]*");
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,88 @@
+package com.txtify.app;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming filter that rewrites CRLF and lone CR line endings to LF and terminates the last
+ * line, matching what the old BufferedReader.readLine() based conversion produced.
+ * Works on UTF-8 (or any ASCII-compatible) bytes, so it must sit after any transcoding.
+ */
+public class LineEndingOutputStream extends FilterOutputStream {
+
+    private static final int CR = '\r';
+    private static final int LF = '\n';
+
+    private boolean pendingCr = false;
+    private boolean wroteAnything = false;
+    private int lastByte = -1;
+
+    public LineEndingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        b &= 0xFF;
+        if (pendingCr) {
+            pendingCr = false;
+            emit(LF);
+            if (b == LF) {
+                return; // The LF of a CRLF pair has already been written.
+            }
+        }
+        if (b == CR) {
+            pendingCr = true;
+        } else {
+            emit(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int runStart = off;
+        for (int i = off; i < end; i++) {
+            int c = b[i];
+            if (!pendingCr && c != CR) {
+                continue;
+            }
+            // Flush the plain run before handling the special byte one at a time.
+            if (i > runStart) {
+                emit(b, runStart, i - runStart);
+            }
+            write(c);
+            runStart = i + 1;
+        }
+        if (end > runStart) {
+            emit(b, runStart, end - runStart);
+        }
+    }
+
+    /**
+     * Resolves a trailing CR and terminates the final line. Does not close the wrapped stream.
+     */
+    public void finish() throws IOException {
+        if (pendingCr) {
+            pendingCr = false;
+            emit(LF);
+        }
+        if (wroteAnything && lastByte != LF) {
+            emit(LF);
+        }
+        out.flush();
+    }
+
+    private void emit(int b) throws IOException {
+        out.write(b);
+        lastByte = b;
+        wroteAnything = true;
+    }
+
+    private void emit(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        lastByte = b[off + len - 1] & 0xFF;
+        wroteAnything = true;
+    }
+}
@@ -7,11 +7,10 @@ import android.content.Intent;
 import android.content.IntentSender;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
-import android.provider.DocumentsContract;
 import android.text.InputType;
 import android.util.Log;
 import android.view.DragEvent;
@@ -50,25 +49,17 @@ import com.google.android.play.core.install.model.UpdateAvailability;
 // FIX: Changed from play.core.tasks to gms.tasks
 import com.google.android.gms.tasks.Task;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 
-public class MainActivity extends AppCompatActivity implements NavigationView.OnNavigationItemSelectedListener, FileBrowserDialogFragment.FileBrowserCallbacks {
+public class MainActivity extends AppCompatActivity implements NavigationView.OnNavigationItemSelectedListener, FileBrowserDialogFragment.FileBrowserCallbacks, ConversionService.Listener {
 
     private static final int PERMISSION_REQUEST_CODE = 100;
     private static final int FILE_PICKER_REQUEST_CODE = 101;
@@ -80,21 +71,40 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
     // NEW: Request code for the In-App Update flow
     private static final int APP_UPDATE_REQUEST_CODE = 200;
 
+    private static final String TAG = "MainActivity";
+
     private static final String PREFS_NAME = "TxtifyPrefs";
     private static final String KEY_SAVE_FOLDER_URI = "saveFolderUri";
+    // Number of files converted concurrently; 1 reproduces the old sequential behaviour.
+    private static final String KEY_CONVERSION_WORKERS = "conversionWorkers";
+    private static final String KEY_NESTED_ARCHIVE_DEPTH = "nestedArchiveDepth";
+    private static final String KEY_OUTPUT_MODE = "outputMode";
+    private static final String KEY_COLLECTED_URIS = "collectedUris";
+    private static final String KEY_CHUNK_MAX_BYTES = "chunkMaxBytes";
+    private static final String KEY_CHUNK_MAX_LINES = "chunkMaxLines";
+    private static final String KEY_ZIP_OUTPUT_LEVEL = "zipOutputLevel";
+
+    private static final long DEFAULT_CHUNK_MAX_BYTES = 50L * 1024 * 1024;
 
     private DrawerLayout drawerLayout;
     private TextView toolbarSubtitle;
+    // Set while the service reports a running job; the subtitle then offers to cancel it.
+    private boolean conversionRunning = false;
     private boolean shouldCreateCopies = true;
+    private boolean shouldHexDumpBinaries = false;
+    private boolean shouldSkipUnchanged = false;
     private Uri customSaveFolderUri = null;
 
     private ListView projectListView;
     private TextView emptyListText;
-    private Map<String, List<Uri>> projectsMap = new HashMap<>();
+    private Map<String, ProjectEntry> projectsMap = new HashMap<>();
+    private ProjectStore projectStore;
     private ArrayAdapter<String> projectListAdapter;
     private List<String> projectNames = new ArrayList<>();
 
     private String nextAvailableFolderName = null;
+    // Listing of the save folder taken by the last PrepareFolderTask run.
+    private volatile DirectoryNameIndex saveFolderIndex = null;
 
     private FrameLayout mainContentFrame;
 
@@ -106,10 +116,26 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
     // NEW: App Update Manager
     private AppUpdateManager appUpdateManager;
 
+    private DocumentStorage storage;
+    private UriMetadataResolver metadataResolver;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        storage = new DocumentStorage(getContentResolver());
+        metadataResolver = new UriMetadataResolver(this, ConversionScheduler.DEFAULT_WORKER_COUNT);
+
+        // Staged projects survive restarts; only their names and counts are read here.
+        projectStore = ProjectStore.get(this);
+        projectsMap.putAll(projectStore.load());
+        // Picks up conversions cut short by the process being killed.
+        ConversionService.resumePending(this);
+        // Read either way, so a list saved by a task that was then closed doesn't linger.
+        List<Uri> savedUris = projectStore.takeCollected();
+        if (savedInstanceState != null && savedInstanceState.getBoolean(KEY_COLLECTED_URIS)) {
+            collectedUris.addAll(savedUris);
+        }
 
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -118,6 +144,14 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         }
 
         toolbarSubtitle = findViewById(R.id.toolbar_subtitle);
+        toolbarSubtitle.setOnClickListener(new View.OnClickListener() {
+				@Override
+				public void onClick(View v) {
+					if (conversionRunning) {
+						showCancelConversionDialog();
+					}
+				}
+			});
         drawerLayout = findViewById(R.id.drawer_layout);
 
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
@@ -170,6 +204,18 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         });
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        ConversionService.setListener(this);
+    }
+
+    @Override
+    protected void onStop() {
+        ConversionService.setListener(null);
+        super.onStop();
+    }
+
     // NEW: Check on resume if the update is in progress (for Immediate updates)
     @Override
     protected void onResume() {
@@ -241,6 +287,28 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
                                 }
                         });
 
+        MenuItem hexDumpItem = navigationView.getMenu().findItem(R.id.nav_hex_dump_toggle);
+        SwitchCompat hexDumpSwitch = (SwitchCompat) hexDumpItem.getActionView();
+        hexDumpSwitch.setChecked(shouldHexDumpBinaries);
+
+        hexDumpSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                                @Override
+                                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                                        shouldHexDumpBinaries = isChecked;
+                                }
+                        });
+
+        MenuItem incrementalItem = navigationView.getMenu().findItem(R.id.nav_incremental_toggle);
+        SwitchCompat incrementalSwitch = (SwitchCompat) incrementalItem.getActionView();
+        incrementalSwitch.setChecked(shouldSkipUnchanged);
+
+        incrementalSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                                @Override
+                                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                                        shouldSkipUnchanged = isChecked;
+                                }
+                        });
+
         mainContentFrame = findViewById(R.id.main_content_frame);
         junctionBox = findViewById(R.id.junction_box_drop_zone);
         junctionBox.setOnDragListener(new JunctionBoxDragListener());
@@ -249,14 +317,21 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         updateProjectListUI();
     }
 
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        // Files collected in the in-app browser aren't a project yet, so they aren't in the store's
+        // index. They go to a file of their own; tens of thousands of URIs would overflow the Bundle.
+        projectStore.saveCollected(collectedUris);
+        outState.putBoolean(KEY_COLLECTED_URIS, !collectedUris.isEmpty());
+    }
+
     // NEW: Implemented from FileBrowserCallbacks
     @Override
-    public void onFilesAdded(ArrayList<File> files) {
-        int count = 0;
-        for (File file : files) {
-            collectedUris.add(Uri.fromFile(file));
-            count++;
-        }
+    public void onFilesAdded(FileSelection files) {
+        int count = files.size();
+        collectedUris.ensureCapacity(collectedUris.size() + count);
+        files.addUrisTo(collectedUris);
         Toast.makeText(this, count + " file(s) collected.", Toast.LENGTH_SHORT).show();
     }
 
@@ -338,15 +413,23 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
             return;
         }
 
-        final List<Uri> projectFiles = projectsMap.get(projectName);
+        final ProjectEntry projectFiles = projectsMap.get(projectName);
         if (projectFiles == null || projectFiles.isEmpty()) {
             Toast.makeText(this, "No files in this project.", Toast.LENGTH_SHORT).show();
             return;
         }
 
+        // Names are resolved in the background once per project; the dialog comes back when they're ready.
+        // A project restored from the store reads its URIs there too.
+        if (!projectFiles.isLoaded() || !projectFiles.getUrisWithoutMetadata().isEmpty()) {
+            Toast.makeText(this, "Reading file details...", Toast.LENGTH_SHORT).show();
+            new ResolveMetadataTask().execute(projectName, projectFiles);
+            return;
+        }
+
         List<String> fileNames = new ArrayList<>();
-        for (Uri uri : projectFiles) {
-            fileNames.add(getFileNameFromUri(uri));
+        for (Uri uri : projectFiles.getUris()) {
+            fileNames.add(projectFiles.getMetadata(uri).getName());
         }
         Collections.sort(fileNames);
 
@@ -356,6 +439,31 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         ArrayAdapter<String> dialogAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, fileNames);
         dialogListView.setAdapter(dialogAdapter);
 
+        // An incremental run goes back into the folder it last wrote, where its manifest is.
+        final String previousFolder = shouldSkipUnchanged ? findPreviousOutputFolder(projectName) : null;
+        if (previousFolder != null) {
+            new AlertDialog.Builder(this)
+                .setTitle("Confirm Conversion")
+                .setView(dialogView)
+                .setMessage("Ready to save " + fileNames.size() + " files. Files unchanged since the last conversion into '"
+                            + previousFolder + "' will be skipped.")
+                .setPositiveButton("Update '" + previousFolder + "'", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        startProjectConversion(projectName, projectFiles, previousFolder);
+                    }
+                })
+                .setNeutralButton("New Folder...", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showRenameDialogForProject(projectName, projectFiles);
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+            return;
+        }
+
         new AlertDialog.Builder(this)
             .setTitle("Confirm Conversion")
             .setView(dialogView)
@@ -363,7 +471,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
             .setPositiveButton("Save to '" + nextAvailableFolderName + "'", new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
-                    new ProjectConversionTask().execute(projectName, projectFiles, nextAvailableFolderName);
+                    startProjectConversion(projectName, projectFiles, nextAvailableFolderName);
                 }
             })
             .setNeutralButton("Rename Folder...", new DialogInterface.OnClickListener() {
@@ -376,7 +484,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
             .show();
     }
 
-    private void showRenameDialogForProject(final String projectName, final List<Uri> projectFiles) {
+    private void showRenameDialogForProject(final String projectName, final ProjectEntry projectFiles) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Rename Folder");
 
@@ -390,19 +498,16 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
                                 public void onClick(DialogInterface dialog, int which) {
                                         String newFolderName = input.getText().toString().trim();
                                         if (newFolderName.isEmpty()) {
-                                                new ProjectConversionTask().execute(projectName, projectFiles, nextAvailableFolderName);
+                                                startProjectConversion(projectName, projectFiles, nextAvailableFolderName);
                                                 return;
                                         }
 
-                                        DocumentFile baseDir = DocumentFile.fromTreeUri(getApplicationContext(), customSaveFolderUri);
-                                        DocumentFile folderToRename = baseDir.findFile(nextAvailableFolderName);
-
-                                        if (folderToRename != null && folderToRename.renameTo(newFolderName)) {
+                                        if (renameFolderInSaveFolder(nextAvailableFolderName, newFolderName)) {
                                                 Toast.makeText(MainActivity.this, "Folder renamed to " + newFolderName, Toast.LENGTH_SHORT).show();
-                                                new ProjectConversionTask().execute(projectName, projectFiles, newFolderName);
+                                                startProjectConversion(projectName, projectFiles, newFolderName);
                                         } else {
                                                 Toast.makeText(MainActivity.this, "Could not rename. Saving to default folder.", Toast.LENGTH_LONG).show();
-                                                new ProjectConversionTask().execute(projectName, projectFiles, nextAvailableFolderName);
+                                                startProjectConversion(projectName, projectFiles, nextAvailableFolderName);
                                         }
                                 }
                         });
@@ -410,7 +515,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         builder.show();
     }
 
-    private void showZipConversionDialog(final Uri zipUri, final ArrayList<ZipEntryItem> selectedItems) {
+    private void showZipConversionDialog(final Uri zipUri, final long listingToken, final BitSet selection) {
         if (nextAvailableFolderName == null) {
             Toast.makeText(this, "Folder is being prepared, please wait.", Toast.LENGTH_SHORT).show();
             return;
@@ -418,24 +523,24 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
         new AlertDialog.Builder(this)
             .setTitle("Confirm ZIP Conversion")
-            .setMessage("Ready to save " + selectedItems.size() + " files from ZIP.")
+            .setMessage("Ready to save " + selection.cardinality() + " files from ZIP.")
             .setPositiveButton("Save to '" + nextAvailableFolderName + "'", new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
-                    new ZipConversionTask().execute(nextAvailableFolderName, zipUri, selectedItems);
+                    startZipConversion(nextAvailableFolderName, zipUri, listingToken, selection);
                 }
             })
             .setNeutralButton("Rename Folder...", new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
-                    showRenameDialogForZip(zipUri, selectedItems);
+                    showRenameDialogForZip(zipUri, listingToken, selection);
                 }
             })
             .setNegativeButton("Cancel", null)
             .show();
     }
 
-    private void showRenameDialogForZip(final Uri zipUri, final ArrayList<ZipEntryItem> selectedItems) {
+    private void showRenameDialogForZip(final Uri zipUri, final long listingToken, final BitSet selection) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Rename Folder");
 
@@ -449,19 +554,16 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
                                 public void onClick(DialogInterface dialog, int which) {
                                         String newFolderName = input.getText().toString().trim();
                                         if (newFolderName.isEmpty()) {
-                                                new ZipConversionTask().execute(nextAvailableFolderName, zipUri, selectedItems);
+                                                startZipConversion(nextAvailableFolderName, zipUri, listingToken, selection);
                                                 return;
                                         }
 
-                                        DocumentFile baseDir = DocumentFile.fromTreeUri(getApplicationContext(), customSaveFolderUri);
-                                        DocumentFile folderToRename = baseDir.findFile(nextAvailableFolderName);
-
-                                        if (folderToRename != null && folderToRename.renameTo(newFolderName)) {
+                                        if (renameFolderInSaveFolder(nextAvailableFolderName, newFolderName)) {
                                                 Toast.makeText(MainActivity.this, "Folder renamed to " + newFolderName, Toast.LENGTH_SHORT).show();
-                                                new ZipConversionTask().execute(newFolderName, zipUri, selectedItems);
+                                                startZipConversion(newFolderName, zipUri, listingToken, selection);
                                         } else {
                                                 Toast.makeText(MainActivity.this, "Could not rename. Saving to default folder.", Toast.LENGTH_LONG).show();
-                                                new ZipConversionTask().execute(nextAvailableFolderName, zipUri, selectedItems);
+                                                startZipConversion(nextAvailableFolderName, zipUri, listingToken, selection);
                                         }
                                 }
                         });
@@ -475,6 +577,120 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         }
     }
 
+    // Conversions run in ConversionService, so they outlive this activity. The settings are
+    // captured now; changing them while the job is queued does not affect it.
+    private void startProjectConversion(String projectName, ProjectEntry project, String folderName) {
+        ConversionRequest request = ConversionRequest.forProject(projectName, project, customSaveFolderUri, folderName);
+        startConversion(applySettings(request));
+    }
+
+    private void startZipConversion(String folderName, Uri zipUri, long listingToken, BitSet selection) {
+        ConversionRequest request = ConversionRequest.forZip(zipUri, listingToken, selection, customSaveFolderUri, folderName);
+        startConversion(applySettings(request));
+    }
+
+    private ConversionRequest applySettings(ConversionRequest request) {
+        return request.setOutputMode(getOutputMode())
+            .setCreateCopies(shouldCreateCopies)
+            .setHexDumpBinaries(shouldHexDumpBinaries)
+            .setSkipUnchanged(shouldSkipUnchanged)
+            .setWorkerCount(getConversionWorkerCount())
+            .setNestedArchiveDepth(getNestedArchiveDepth())
+            .setChunkLimits(getChunkMaxBytes(), getChunkMaxLines())
+            .setZipLevel(getZipOutputLevel());
+    }
+
+    private void startConversion(ConversionRequest request) {
+        try {
+            ConversionService.start(this, request);
+            Toast.makeText(this, "Converting in the background. You can leave the app.", Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not queue the conversion", e);
+            Toast.makeText(this, "Error: Could not start the conversion.", Toast.LENGTH_LONG).show();
+        }
+    }
+
+    private void showCancelConversionDialog() {
+        new AlertDialog.Builder(this)
+            .setTitle("Cancel Conversion")
+            .setMessage("Stop the running conversion? Files it has already written will be removed.")
+            .setPositiveButton("Stop", new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    ConversionService.cancelCurrent(MainActivity.this);
+                }
+            })
+            .setNegativeButton("Keep Going", null)
+            .show();
+    }
+
+    @Override
+    public void onConversionProgress(ConversionRequest request, ConversionProgress progress) {
+        conversionRunning = !progress.isCancelled();
+        if (!conversionRunning) {
+            toolbarSubtitle.setText("Cancelling...");
+            return;
+        }
+        String currentFile = progress.getCurrentFile();
+        toolbarSubtitle.setText(currentFile != null ? progress.describe() + ", " + currentFile : progress.describe());
+    }
+
+    @Override
+    public void onConversionFinished(ConversionRequest request, ConversionRunner.Outcome outcome) {
+        conversionRunning = false;
+        toolbarSubtitle.setText("");
+        String folderName = request.getFolderName();
+        int successCount = outcome.getSuccessCount();
+        String message;
+        if (outcome.isCancelled()) {
+            message = "Conversion cancelled. Partial output was removed.";
+            if (outcome.isFolderRemoved()) {
+                message += String.format(" The empty folder '%s' was deleted.", folderName);
+                DirectoryNameIndex index = saveFolderIndex;
+                if (index != null) {
+                    index.remove(folderName);
+                }
+            }
+        } else if (successCount >= 0) {
+            if (request.isZip()) {
+                message = String.format("Success. %d files from ZIP saved to folder '%s'.", successCount, folderName);
+            } else if (outcome.getBundleName() != null) {
+                message = String.format("Success. %d files bundled into '%s' in folder '%s'.", successCount, outcome.getBundleName(), folderName);
+            } else {
+                message = String.format("Success. %d files saved to folder '%s'.", successCount, folderName);
+            }
+            if (outcome.getResumedCount() > 0) {
+                message += String.format(" %d of them were saved before the conversion was interrupted.", outcome.getResumedCount());
+            }
+            message += describeBinaryFiles(outcome.getBinaryCount(), request.shouldHexDumpBinaries());
+            if (outcome.getUnchangedCount() > 0) {
+                message += String.format(" %d unchanged files were skipped.", outcome.getUnchangedCount());
+            }
+            if (outcome.getThroughputSummary() != null) {
+                message += "\n\n" + outcome.getThroughputSummary();
+            }
+        } else if (request.isZip()) {
+            message = "Error converting files from ZIP. Could not access destination folder.";
+        } else {
+            message = "Error: Could not access the destination folder '" + folderName + "'.";
+        }
+        new AlertDialog.Builder(this)
+            .setTitle(outcome.isCancelled() ? "Conversion Cancelled" : request.isZip() ? "ZIP Conversion Complete" : "Conversion Complete")
+            .setMessage(message)
+            .setPositiveButton("OK", null)
+            .show();
+
+        if (!request.isZip() && !outcome.isCancelled() && successCount >= 0) {
+            // The service has already taken it out of the store; a cancelled or failed project stays.
+            ProjectEntry converted = projectsMap.get(request.getProjectName());
+            if (converted != null && converted.getFileId() == request.getProjectFileId()) {
+                projectsMap.remove(request.getProjectName());
+            }
+            updateProjectListUI();
+        }
+        prepareNextUnknownFolder();
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -496,6 +712,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
             Uri folderUri = data.getData();
             getContentResolver().takePersistableUriPermission(folderUri, Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
             customSaveFolderUri = folderUri;
+            saveFolderIndex = null;
             getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putString(KEY_SAVE_FOLDER_URI, folderUri.toString()).apply();
             Toast.makeText(this, "Save folder set!", Toast.LENGTH_SHORT).show();
             prepareNextUnknownFolder();
@@ -506,17 +723,19 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
             Uri zipUri = data.getData();
             Intent intent = new Intent(this, ZipContentsActivity.class);
             intent.putExtra(ZipContentsActivity.EXTRA_ZIP_URI, zipUri);
+            intent.putExtra(ZipContentsActivity.EXTRA_MAX_DEPTH, getNestedArchiveDepth());
             startActivityForResult(intent, ZIP_CONTENTS_REQUEST_CODE);
             return;
         }
 
         if (requestCode == ZIP_CONTENTS_REQUEST_CODE) {
-            Serializable serializableExtra = data.getSerializableExtra(ZipContentsActivity.RESULT_EXTRA_SELECTED_ITEMS);
-            if (serializableExtra instanceof ArrayList) {
-                ArrayList<ZipEntryItem> selectedItems = (ArrayList<ZipEntryItem>) serializableExtra;
-                Uri zipUri = data.getData();
-                if (zipUri != null && !selectedItems.isEmpty()) {
-                    showZipConversionDialog(zipUri, selectedItems);
+            long listingToken = data.getLongExtra(ZipContentsActivity.RESULT_EXTRA_LISTING_TOKEN, -1);
+            long[] selectionBits = data.getLongArrayExtra(ZipContentsActivity.RESULT_EXTRA_SELECTION);
+            Uri zipUri = data.getData();
+            if (zipUri != null && selectionBits != null) {
+                BitSet selection = BitSet.valueOf(selectionBits);
+                if (!selection.isEmpty()) {
+                    showZipConversionDialog(zipUri, listingToken, selection);
                 }
             }
             return;
@@ -544,16 +763,21 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         @Override
         protected String doInBackground(Uri... uris) {
             Uri saveFolderUri = uris[0];
-            DocumentFile baseDir = DocumentFile.fromTreeUri(getApplicationContext(), saveFolderUri);
+            DocumentHandle baseDir = storage.openTree(saveFolderUri);
             if (baseDir == null) return null;
 
+            // One listing of the save folder answers every probe below, and is kept for the
+            // conversion tasks and the rename dialogs.
+            DirectoryNameIndex index = DirectoryNameIndex.load(storage, baseDir);
+            if (index == null) return null;
+
             String baseName = "unknown_project";
             String nameToCheck = baseName;
             int counter = 1;
 
             while (true) {
                 publishProgress("Checking for '" + nameToCheck + "'...");
-                DocumentFile existingFolder = baseDir.findFile(nameToCheck);
+                DocumentHandle existingFolder = index.get(nameToCheck);
 
                 if (existingFolder != null && existingFolder.isDirectory()) {
                     publishProgress("'" + nameToCheck + "' exists.");
@@ -561,18 +785,24 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
                     counter++;
                 } else {
                     publishProgress("Creating folder: '" + nameToCheck + "'");
-                    DocumentFile newDir = baseDir.createDirectory(nameToCheck);
-                    return (newDir != null) ? newDir.getName() : null;
+                    // The handle carries the name the provider actually gave the folder.
+                    DocumentHandle newDir = storage.createDirectory(baseDir, nameToCheck);
+                    if (newDir == null) return null;
+                    index.put(newDir);
+                    saveFolderIndex = index;
+                    return newDir.getName();
                 }
             }
         }
 
         @Override
         protected void onProgressUpdate(String... values) {
+            toolbarSubtitle.setText(values[0]);
         }
 
         @Override
         protected void onPostExecute(String result) {
+            toolbarSubtitle.setText("");
             if (result != null) {
                 nextAvailableFolderName = result;
                 Toast.makeText(MainActivity.this, "Ready. Default save folder is: " + result, Toast.LENGTH_LONG).show();
@@ -582,166 +812,27 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         }
     }
 
-    private class ProjectConversionTask extends AsyncTask<Object, Void, Integer> {
-        private String projectMapKey;
-        private String folderToSaveIn;
-
-        private class FileToSort {
-            Uri uri;
-            String name;
-            FileToSort(Uri u, String n) { this.uri = u; this.name = n; }
-        }
+    private class ResolveMetadataTask extends AsyncTask<Object, Void, Boolean> {
+        private String projectName;
+        private ProjectEntry project;
 
         @Override
-        protected Integer doInBackground(Object... params) {
-            this.projectMapKey = (String) params[0];
-            List<Uri> urisToConvert = (List<Uri>) params[1];
-            this.folderToSaveIn = (String) params[2];
-            int successCount = 0;
-
-            if (folderToSaveIn == null) return -1;
-
-            DocumentFile baseDir = DocumentFile.fromTreeUri(getApplicationContext(), customSaveFolderUri);
-            if (baseDir == null) return -1;
-
-            DocumentFile projectDir = baseDir.findFile(folderToSaveIn);
-            if (projectDir == null || !projectDir.isDirectory()) {
-				return -1;
-            }
-
-            List<FileToSort> sortedFiles = new ArrayList<>();
-            for (Uri uri : urisToConvert) {
-                sortedFiles.add(new FileToSort(uri, getFileNameFromUri(uri)));
-            }
-            Collections.sort(sortedFiles, new Comparator<FileToSort>() {
-					@Override
-					public int compare(FileToSort f1, FileToSort f2) {
-						return f1.name.compareTo(f2.name);
-					}
-				});
-
-            for (FileToSort file : sortedFiles) {
-                String content = readFileContent(file.uri);
-                if (content != null) {
-                    if (saveFileInDirectory(projectDir, file.name + ".txt", content)) {
-                        successCount++;
-                    }
-                }
-            }
-            return successCount;
-        }
-
-        @Override
-        protected void onPostExecute(Integer successCount) {
-            String message;
-            if (successCount >= 0) {
-                message = String.format("Success. %d files saved to folder '%s'.", successCount, this.folderToSaveIn);
-            } else {
-                message = "Error: Could not access the destination folder '" + this.folderToSaveIn + "'.";
-            }
-            new AlertDialog.Builder(MainActivity.this)
-                .setTitle("Conversion Complete")
-                .setMessage(message)
-                .setPositiveButton("OK", null)
-                .show();
-
-            if (this.projectMapKey != null) {
-                projectsMap.remove(this.projectMapKey);
-            }
-            updateProjectListUI();
-            prepareNextUnknownFolder();
-        }
-    }
-
-    private class ZipConversionTask extends AsyncTask<Object, Void, Integer> {
-        private String folderToSaveIn;
-        private Uri zipFileUri;
-        private List<ZipEntryItem> itemsToConvert;
-
-        @Override
-        protected Integer doInBackground(Object... params) {
-            this.folderToSaveIn = (String) params[0];
-            this.zipFileUri = (Uri) params[1];
-            this.itemsToConvert = (List<ZipEntryItem>) params[2];
-            int successCount = 0;
-
-            if (folderToSaveIn == null) return -1;
-
-            DocumentFile baseDir = DocumentFile.fromTreeUri(getApplicationContext(), customSaveFolderUri);
-            if (baseDir == null) return -1;
-
-            DocumentFile projectDir = baseDir.findFile(folderToSaveIn);
-            if (projectDir == null || !projectDir.isDirectory()) {
-                return -1;
-            }
-
-            ZipInputStream zis = null;
-            try {
-                InputStream is = getContentResolver().openInputStream(zipFileUri);
-                zis = new ZipInputStream(is);
-                ZipEntry zipEntry;
-                while ((zipEntry = zis.getNextEntry()) != null) {
-                    if (!zipEntry.isDirectory() && isEntryInList(zipEntry.getName(), itemsToConvert)) {
-                        String content = readContentFromZipEntry(zis);
-                        String fileName = getFileNameFromUri(Uri.parse(zipEntry.getName()));
-                        if (saveFileInDirectory(projectDir, fileName + ".txt", content)) {
-                            successCount++;
-                        }
-                    }
-                    zis.closeEntry();
-                }
-            } catch (IOException e) {
-                return successCount;
-            } finally {
-                if (zis != null) {
-                    try {
-                        zis.close();
-                    } catch (IOException e) {
-                        // ignore
-                    }
-                }
-            }
-            return successCount;
+        protected Boolean doInBackground(Object... params) {
+            this.projectName = (String) params[0];
+            this.project = (ProjectEntry) params[1];
+            metadataResolver.resolveMissing(project);
+            return true;
         }
 
         @Override
-        protected void onPostExecute(Integer successCount) {
-            String message;
-            if (successCount >= 0) {
-                message = String.format("Success. %d files from ZIP saved to folder '%s'.", successCount, this.folderToSaveIn);
-            } else {
-                message = "Error converting files from ZIP. Could not access destination folder.";
+        protected void onPostExecute(Boolean result) {
+            // Only reopen the dialog if the project wasn't converted or cleared in the meantime.
+            if (projectsMap.get(projectName) == project) {
+                showConversionDialog(projectName);
             }
-            new AlertDialog.Builder(MainActivity.this)
-                .setTitle("ZIP Conversion Complete")
-                .setMessage(message)
-                .setPositiveButton("OK", null)
-                .show();
-
-            prepareNextUnknownFolder();
-        }
-
-        private boolean isEntryInList(String entryPath, List<ZipEntryItem> list) {
-            for (ZipEntryItem item : list) {
-                if (item.getFullPath().equals(entryPath)) {
-                    return true;
-                }
-            }
-            return false;
-        }
-
-        private String readContentFromZipEntry(ZipInputStream zis) throws IOException {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = zis.read(buffer)) > 0) {
-                baos.write(buffer, 0, len);
-            }
-            return baos.toString("UTF-8");
         }
     }
 
-
     private void openFilePicker() {
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
         intent.addCategory(Intent.CATEGORY_OPENABLE);
@@ -769,39 +860,16 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         startActivityForResult(intent, FOLDER_PICKER_REQUEST_CODE);
     }
 
-    private String getFileNameFromUri(Uri uri) {
-        String result = "unknown_file";
-        if ("content".equals(uri.getScheme())) {
-            Cursor cursor = null;
-            try {
-                cursor = getContentResolver().query(uri, new String[]{DocumentsContract.Document.COLUMN_DISPLAY_NAME}, null, null, null);
-                if (cursor != null && cursor.moveToFirst()) {
-                    result = cursor.getString(0);
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-            }
-        } else if ("file".equals(uri.getScheme())) {
-			result = new File(uri.getPath()).getName();
-        }
-
-        if (result.equals("unknown_file")) {
-            result = uri.getPath();
-            int cut = result.lastIndexOf('/');
-            if (cut != -1) result = result.substring(cut + 1);
-        }
-        return result;
-    }
-
     private void addUrisToProjectMap(List<Uri> uris) {
         if (uris == null || uris.isEmpty()) return;
         String projectName = getProjectFolderNameForBatch(uris);
-        if (!projectsMap.containsKey(projectName)) {
-            projectsMap.put(projectName, new ArrayList<Uri>());
+        ProjectEntry project = projectsMap.get(projectName);
+        if (project == null) {
+            project = projectStore.newEntry();
+            projectsMap.put(projectName, project);
         }
-        projectsMap.get(projectName).addAll(uris);
+        project.addUris(uris);
+        projectStore.append(projectName, project, uris);
         Toast.makeText(this, uris.size() + " file(s) added to project '" + projectName + "'.", Toast.LENGTH_SHORT).show();
         updateProjectListUI();
     }
@@ -859,63 +927,156 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         return null;
     }
 
-    private String readFileContent(Uri uri) {
-        StringBuilder sb = new StringBuilder();
-        InputStream is = null;
-        BufferedReader reader = null;
-        try {
-            is = getContentResolver().openInputStream(uri);
-            reader = new BufferedReader(new InputStreamReader(is));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append('\n');
-            }
-        } catch (IOException e) {
-            return null;
-        } finally {
-            try {
-                if (reader != null) reader.close();
-                if (is != null) is.close();
-            } catch (IOException e) {
-                // ignore
+    // Returns the listing of the save folder, reusing the one taken by PrepareFolderTask.
+    @Nullable
+    private DirectoryNameIndex getSaveFolderIndex() {
+        DirectoryNameIndex index = saveFolderIndex;
+        if (index == null && customSaveFolderUri != null) {
+            DocumentHandle baseDir = storage.openTree(customSaveFolderUri);
+            if (baseDir != null) {
+                index = DirectoryNameIndex.load(storage, baseDir);
+                saveFolderIndex = index;
             }
         }
-        return sb.toString();
+        return index;
     }
 
-    private boolean saveFileInDirectory(DocumentFile dir, String fileName, String content) {
-        String finalFileName = fileName;
-        if (shouldCreateCopies) {
-            int copy = 1;
-            while (dir.findFile(finalFileName) != null) {
-                String base = fileName.substring(0, fileName.lastIndexOf('.'));
-                String extension = fileName.substring(fileName.lastIndexOf('.'));
-                finalFileName = base + "-" + (copy++) + extension;
-            }
-        } else {
-            DocumentFile existingFile = dir.findFile(finalFileName);
-            if (existingFile != null) existingFile.delete();
+    // The folder the project's last incremental conversion wrote, if it is still in the save folder.
+    @Nullable
+    private String findPreviousOutputFolder(String projectName) {
+        String folderName = projectStore.getOutputFolder(customSaveFolderUri, projectName);
+        DirectoryNameIndex index = saveFolderIndex;
+        if (folderName == null || index == null) return null;
+        DocumentHandle folder = index.get(folderName);
+        return (folder != null && folder.isDirectory()) ? folderName : null;
+    }
+
+    // Renames a folder directly inside the save folder and keeps the cached listing in step.
+    private boolean renameFolderInSaveFolder(String currentName, String newName) {
+        DirectoryNameIndex index = getSaveFolderIndex();
+        if (index == null) return false;
+
+        DocumentHandle folder = index.get(currentName);
+        if (folder == null) return false;
+        DocumentHandle renamed = storage.rename(folder, newName);
+        if (renamed == null) return false;
+        index.remove(currentName);
+        index.put(renamed);
+        return true;
+    }
+
+    // Completion dialog line for the inputs that ContentSniffer classified as binary.
+    private static String describeBinaryFiles(int count, boolean hexDumped) {
+        if (count == 0) return "";
+        if (hexDumped) {
+            return String.format(" %d of them were binary and saved as hex dumps.", count);
         }
-        OutputStream out = null;
-        try {
-            DocumentFile newFile = dir.createFile("text/plain", finalFileName);
-            if (newFile != null) {
-                out = getContentResolver().openOutputStream(newFile.getUri());
-                if (out != null) {
-                    out.write(content.getBytes("UTF-8"));
-                    return true;
-                }
+        return String.format(" %d binary files were skipped.", count);
+    }
+
+    private int getOutputMode() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getInt(KEY_OUTPUT_MODE, ConversionRequest.OUTPUT_MODE_FILES);
+    }
+
+    private void showOutputModeDialog() {
+        final String[] modes = {
+            "One .txt file per source",
+            "Single bundle file",
+            "Single bundle file with table of contents",
+            "Bundle split into parts",
+            "Compressed ZIP archive"
+        };
+        new AlertDialog.Builder(this)
+            .setTitle("Project Output Mode")
+            .setSingleChoiceItems(modes, getOutputMode(), new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putInt(KEY_OUTPUT_MODE, which).apply();
+						dialog.dismiss();
+						if (which == ConversionRequest.OUTPUT_MODE_CHUNKED) {
+							showChunkSizeDialog();
+						} else if (which == ConversionRequest.OUTPUT_MODE_ZIP) {
+							showZipLevelDialog();
+						} else {
+							Toast.makeText(MainActivity.this, "Output mode: " + modes[which], Toast.LENGTH_SHORT).show();
+						}
+					}
+				})
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+
+    // Parts roll over at a byte or a line threshold; the one not chosen is switched off.
+    private void showChunkSizeDialog() {
+        final String[] labels = { "10 MB", "50 MB", "100 MB", "500 MB", "100,000 lines", "1,000,000 lines" };
+        final long[] maxBytes = { 10L << 20, 50L << 20, 100L << 20, 500L << 20, 0, 0 };
+        final long[] maxLines = { 0, 0, 0, 0, 100000, 1000000 };
+
+        int checked = -1;
+        for (int i = 0; i < labels.length; i++) {
+            if (maxBytes[i] == getChunkMaxBytes() && maxLines[i] == getChunkMaxLines()) {
+                checked = i;
             }
-        } catch (IOException e) {
-            return false;
-        } finally {
-            try {
-                if (out != null) out.close();
-            } catch (IOException e) {
-                // ignore
+        }
+        new AlertDialog.Builder(this)
+            .setTitle("Split Parts At")
+            .setSingleChoiceItems(labels, checked, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+							.putLong(KEY_CHUNK_MAX_BYTES, maxBytes[which])
+							.putLong(KEY_CHUNK_MAX_LINES, maxLines[which])
+							.apply();
+						Toast.makeText(MainActivity.this, "Parts split at " + labels[which], Toast.LENGTH_SHORT).show();
+						dialog.dismiss();
+					}
+				})
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+
+    private void showZipLevelDialog() {
+        final String[] labels = { "Store (fastest)", "Fast", "Default", "Best (smallest)" };
+        final int[] levels = { ZipOutputTarget.LEVEL_STORE, ZipOutputTarget.LEVEL_FAST, ZipOutputTarget.LEVEL_DEFAULT, ZipOutputTarget.LEVEL_BEST };
+
+        int checked = -1;
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] == getZipOutputLevel()) {
+                checked = i;
             }
         }
-        return false;
+        new AlertDialog.Builder(this)
+            .setTitle("ZIP Compression")
+            .setSingleChoiceItems(labels, checked, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putInt(KEY_ZIP_OUTPUT_LEVEL, levels[which]).apply();
+						Toast.makeText(MainActivity.this, "ZIP compression: " + labels[which], Toast.LENGTH_SHORT).show();
+						dialog.dismiss();
+					}
+				})
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+
+    private int getZipOutputLevel() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getInt(KEY_ZIP_OUTPUT_LEVEL, ZipOutputTarget.LEVEL_FAST);
+    }
+
+    private long getChunkMaxBytes() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getLong(KEY_CHUNK_MAX_BYTES, DEFAULT_CHUNK_MAX_BYTES);
+    }
+
+    private long getChunkMaxLines() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getLong(KEY_CHUNK_MAX_LINES, 0);
+    }
+
+    private int getNestedArchiveDepth() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getInt(KEY_NESTED_ARCHIVE_DEPTH, NestedArchives.DEFAULT_MAX_DEPTH);
+    }
+
+    private int getConversionWorkerCount() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getInt(KEY_CONVERSION_WORKERS, ConversionScheduler.DEFAULT_WORKER_COUNT);
     }
 
     @Override
@@ -934,6 +1095,8 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
             dialogFragment.show(getSupportFragmentManager(), "file_browser_dialog");
         } else if (itemId == R.id.nav_set_save_folder) {
             openFolderPicker();
+        } else if (itemId == R.id.nav_output_mode) {
+            showOutputModeDialog();
         } else if (itemId == R.id.nav_help) {
             startActivity(new Intent(this, HelpActivity.class));
         }
@@ -956,6 +1119,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         }
         else if (id == R.id.action_clear_all) {
             projectsMap.clear();
+            projectStore.clear();
             updateProjectListUI();
             Toast.makeText(this, "Project list cleared.", Toast.LENGTH_SHORT).show();
             return true;
@@ -964,8 +1128,17 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
     }
 
     private void checkPermissions() {
+        List<String> missing = new ArrayList<>();
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
-            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.READ_EXTERNAL_STORAGE}, PERMISSION_REQUEST_CODE);
+            missing.add(Manifest.permission.READ_EXTERNAL_STORAGE);
+        }
+        // Without it the conversion progress notification is not shown on Android 13+.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+            && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            missing.add(Manifest.permission.POST_NOTIFICATIONS);
+        }
+        if (!missing.isEmpty()) {
+            ActivityCompat.requestPermissions(this, missing.toArray(new String[0]), PERMISSION_REQUEST_CODE);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+package com.txtify.app;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streaming recursion into archives stored inside a ZIP (inner ZIPs, JARs, ...).
+ *
+ * Inner entries are read straight from the enclosing entry's inflater, so nothing is spilled to
+ * temporary files. A nested file is addressed as {@code outer.zip!/inner/path.txt}.
+ */
+public final class NestedArchives {
+
+    public static final String SEPARATOR = "!/";
+    public static final int DEFAULT_MAX_DEPTH = 2;
+
+    private static final String[] ARCHIVE_EXTENSIONS = { ".zip", ".jar", ".aar", ".apk", ".war", ".ear" };
+
+    /** Receives the files found while walking an archive. */
+    public interface Visitor {
+        /** Lets the walk stop early once the visitor has found everything it wants. */
+        boolean isDone();
+
+        /** Whether to descend into the nested archive at {@code archivePath}. */
+        boolean enterArchive(String archivePath);
+
+        /** Called for every file that is not descended into; {@code in} is only valid during the call. */
+        void visitFile(String path, InputStream in) throws IOException;
+
+        /** An archive that was descended into held no files, e.g. because it is not really a ZIP. */
+        void onEmptyArchive(String archivePath);
+    }
+
+    private NestedArchives() {
+    }
+
+    public static boolean isArchiveName(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String extension : ARCHIVE_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks the ZIP stream {@code in}, prefixing every path with {@code prefix}. Archives are
+     * descended into while {@code depthLeft} is positive. Does not close {@code in}.
+     *
+     * @return the number of files passed to the visitor
+     */
+    public static int walk(InputStream in, String prefix, int depthLeft, Visitor visitor) throws IOException {
+        ZipInputStream zis = new ZipInputStream(new NonClosingInputStream(in));
+        int visited = 0;
+        try {
+            ZipEntry zipEntry;
+            while (!visitor.isDone() && (zipEntry = zis.getNextEntry()) != null) {
+                if (!zipEntry.isDirectory()) {
+                    visited += visitEntry(zipEntry.getName(), zis, prefix, depthLeft, visitor);
+                }
+                zis.closeEntry();
+            }
+        } finally {
+            zis.close(); // Releases the inflater; the wrapped stream stays open.
+        }
+        return visited;
+    }
+
+    /**
+     * Hands a single entry to the visitor, recursing into it if it is an archive the visitor
+     * wants opened. Used for entries of the outer archive that were opened some other way.
+     */
+    public static int visitEntry(String name, InputStream in, String prefix, int depthLeft, Visitor visitor) throws IOException {
+        String path = prefix + name;
+        if (depthLeft > 0 && isArchiveName(name) && visitor.enterArchive(path)) {
+            int visited = walk(in, path + SEPARATOR, depthLeft - 1, visitor);
+            if (visited == 0) {
+                visitor.onEmptyArchive(path);
+            }
+            return visited;
+        }
+        visitor.visitFile(path, in);
+        return 1;
+    }
+
+    /** The top-level entry name of a path, i.e. everything before the first {@link #SEPARATOR}. */
+    public static String getOuterName(String path) {
+        int separator = path.indexOf(SEPARATOR);
+        return (separator >= 0) ? path.substring(0, separator) : path;
+    }
+
+    private static class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // The enclosing archive owns the stream.
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.txtify.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A single destination that converted files are written into one after another, such as a
+ * text bundle or a ZIP archive. Targets are not thread-safe; files must be written in order.
+ */
+public interface OutputTarget extends Closeable {
+
+    /**
+     * Starts the next file and returns the stream its text goes to. The stream must not be
+     * closed; call {@link #endFile()} when the file is complete.
+     */
+    OutputStream beginFile(String path) throws IOException;
+
+    void endFile() throws IOException;
+}
@@ -0,0 +1,88 @@
+package com.txtify.app;
+
+import android.net.Uri;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One staged project in MainActivity: its source URIs plus the metadata resolved for them.
+ * The metadata lives exactly as long as the entry does in projectsMap.
+ *
+ * Entries restored from the {@link ProjectStore} start out with only their URI count; the URIs
+ * themselves are read from the store the first time they are needed, which should be off the
+ * main thread. {@link #size()} and {@link #isEmpty()} never trigger that read.
+ */
+public class ProjectEntry {
+
+    private final ProjectStore store;
+    private final int fileId;
+    private int storedCount;
+    private boolean loaded;
+
+    private final List<Uri> uris = new ArrayList<>();
+    private final Map<Uri, UriMetadata> metadata = new HashMap<>();
+
+    ProjectEntry(ProjectStore store, int fileId, int storedCount) {
+        this.store = store;
+        this.fileId = fileId;
+        this.storedCount = storedCount;
+        this.loaded = storedCount == 0;
+    }
+
+    int getFileId() {
+        return fileId;
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    // URIs added before the stored ones are read go after them, as they do in the store's file.
+    private void ensureLoaded() {
+        if (!loaded) {
+            uris.addAll(0, store.readUris(fileId, storedCount));
+            storedCount = 0;
+            loaded = true;
+        }
+    }
+
+    public synchronized void addUris(Collection<Uri> newUris) {
+        uris.addAll(newUris);
+    }
+
+    // Returns a copy, safe to iterate from a background task.
+    public synchronized List<Uri> getUris() {
+        ensureLoaded();
+        return new ArrayList<>(uris);
+    }
+
+    public synchronized int size() {
+        return storedCount + uris.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public synchronized UriMetadata getMetadata(Uri uri) {
+        return metadata.get(uri);
+    }
+
+    public synchronized void putMetadata(Uri uri, UriMetadata value) {
+        metadata.put(uri, value);
+    }
+
+    public synchronized List<Uri> getUrisWithoutMetadata() {
+        ensureLoaded();
+        List<Uri> missing = new ArrayList<>();
+        for (Uri uri : uris) {
+            if (!metadata.containsKey(uri)) {
+                missing.add(uri);
+            }
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,413 @@
+package com.txtify.app;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * On-device home of the staged projects, so a collected batch survives process death.
+ *
+ * A small index file holds one line per project (file id, URI count, name); each project's URIs
+ * live in their own append-only file, one per line. Startup reads only the index; a project's
+ * URIs are read the first time they are needed (see {@link ProjectEntry}). Every write runs on
+ * one background thread, in the order it was requested.
+ *
+ * The store also remembers which folder each project's last incremental conversion wrote, so
+ * staging the same sources again can update that folder instead of filling a new one.
+ */
+public class ProjectStore {
+
+    private static final String TAG = "ProjectStore";
+    private static final String DIRECTORY_NAME = "projects";
+    private static final String INDEX_FILE_NAME = "projects.idx";
+    private static final String URI_FILE_SUFFIX = ".uris";
+    private static final String OUTPUT_FOLDERS_FILE_NAME = "output_folders.idx";
+    private static final String COLLECTED_FILE_NAME = "collected" + URI_FILE_SUFFIX;
+    private static final int MAX_OUTPUT_FOLDERS = 200;
+
+    private static ProjectStore instance;
+
+    private final File directory;
+    private final ContentResolver resolver;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    // Name to entry, as last written to the index; only touched on the writer thread.
+    private final Map<String, ProjectEntry> indexed = new LinkedHashMap<>();
+    private boolean indexRead;
+    private int nextFileId = 1;
+    // Save folder and project name to output folder, oldest first; read on first use.
+    private Map<String, String> outputFolders;
+
+    private ProjectStore(Context context) {
+        this.directory = new File(context.getFilesDir(), DIRECTORY_NAME);
+        this.resolver = context.getContentResolver();
+    }
+
+    /**
+     * The store of this process. The activity and {@link ConversionService} share it, so all
+     * writes go through the one writer thread.
+     */
+    public static synchronized ProjectStore get(Context context) {
+        if (instance == null) {
+            instance = new ProjectStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Reads the index and returns an entry per stored project, in stored order. The entries
+     * know their URI count but have not read their URIs yet.
+     */
+    public Map<String, ProjectEntry> load() {
+        final Map<String, ProjectEntry> projects = readIndex();
+        writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					indexed.putAll(projects);
+					indexRead = true;
+				}
+			});
+        return projects;
+    }
+
+    private Map<String, ProjectEntry> readIndex() {
+        Map<String, ProjectEntry> projects = new LinkedHashMap<>();
+        File index = new File(directory, INDEX_FILE_NAME);
+        if (index.isFile()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 3);
+                    if (fields.length != 3) {
+                        continue;
+                    }
+                    try {
+                        int fileId = Integer.parseInt(fields[0]);
+                        int count = Integer.parseInt(fields[1]);
+                        projects.put(fields[2], new ProjectEntry(this, fileId, count));
+                        synchronized (this) {
+                            nextFileId = Math.max(nextFileId, fileId + 1);
+                        }
+                    } catch (NumberFormatException e) {
+                        // Skip the damaged line.
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read the project index", e);
+            } finally {
+                closeQuietly(reader);
+            }
+        }
+        return projects;
+    }
+
+    /** Creates the entry for a new project; nothing is written until URIs are added. */
+    public synchronized ProjectEntry newEntry() {
+        return new ProjectEntry(this, nextFileId++, 0);
+    }
+
+    /**
+     * Appends URIs to a project's file and records the new count. Content URIs from the
+     * document picker also get their read grant persisted, so they can still be opened after
+     * a restart.
+     */
+    public void append(final String name, final ProjectEntry entry, Collection<Uri> uris) {
+        final List<Uri> added = new ArrayList<>(uris);
+        writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					Writer out = null;
+					try {
+						directory.mkdirs();
+						out = new OutputStreamWriter(new FileOutputStream(uriFile(entry.getFileId()), true), StandardCharsets.UTF_8);
+						for (Uri uri : added) {
+							out.write(uri.toString());
+							out.write('\n');
+						}
+					} catch (IOException e) {
+						Log.w(TAG, "Could not store the URIs of " + name, e);
+					} finally {
+						closeQuietly(out);
+					}
+					for (Uri uri : added) {
+						takeReadPermission(uri);
+					}
+					indexed.put(name, entry);
+					writeIndex();
+				}
+			});
+    }
+
+    /** Forgets a project and gives back the read grants of its URIs. */
+    public void remove(final String name, final ProjectEntry entry) {
+        writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					forget(entry);
+					indexed.remove(name);
+					writeIndex();
+				}
+			});
+    }
+
+    /**
+     * Forgets a project by name, if it is still the one with {@code fileId}; a project staged
+     * again under the same name after a conversion was queued is left alone. Usable without
+     * {@link #load()} having run in this process.
+     */
+    public void remove(final String name, final int fileId) {
+        writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!indexRead) {
+						indexed.putAll(readIndex());
+						indexRead = true;
+					}
+					ProjectEntry entry = indexed.get(name);
+					if (entry != null && entry.getFileId() == fileId) {
+						forget(entry);
+						indexed.remove(name);
+						writeIndex();
+					}
+				}
+			});
+    }
+
+    public void clear() {
+        writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (ProjectEntry entry : indexed.values()) {
+						forget(entry);
+					}
+					indexed.clear();
+					writeIndex();
+				}
+			});
+    }
+
+    /**
+     * The folder inside the save folder that the project's last incremental conversion wrote,
+     * or null. Unlike the project itself, this is kept after the conversion.
+     */
+    public synchronized String getOutputFolder(Uri saveFolderUri, String projectName) {
+        return readOutputFolders().get(saveFolderUri + "\t" + projectName);
+    }
+
+    public void setOutputFolder(Uri saveFolderUri, String projectName, String folderName) {
+        final Map<String, String> snapshot;
+        synchronized (this) {
+            Map<String, String> folders = readOutputFolders();
+            String key = saveFolderUri + "\t" + projectName;
+            // Re-inserted so the least recently converted projects are dropped first.
+            folders.remove(key);
+            folders.put(key, folderName);
+            Iterator<String> oldest = folders.keySet().iterator();
+            while (folders.size() > MAX_OUTPUT_FOLDERS) {
+                oldest.next();
+                oldest.remove();
+            }
+            snapshot = new LinkedHashMap<>(folders);
+        }
+        writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					writeOutputFolders(snapshot);
+				}
+			});
+    }
+
+    // Lines of save folder URI, output folder and project name; the name goes last as it may hold anything.
+    private Map<String, String> readOutputFolders() {
+        if (outputFolders != null) {
+            return outputFolders;
+        }
+        outputFolders = new LinkedHashMap<>();
+        File file = new File(directory, OUTPUT_FOLDERS_FILE_NAME);
+        if (file.isFile()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 3);
+                    if (fields.length == 3) {
+                        outputFolders.put(fields[0] + "\t" + fields[2], fields[1]);
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read the output folders", e);
+            } finally {
+                closeQuietly(reader);
+            }
+        }
+        return outputFolders;
+    }
+
+    private void writeOutputFolders(Map<String, String> folders) {
+        directory.mkdirs();
+        File temp = new File(directory, OUTPUT_FOLDERS_FILE_NAME + ".tmp");
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8);
+            for (Map.Entry<String, String> folder : folders.entrySet()) {
+                String[] key = folder.getKey().split("\t", 2);
+                out.write(key[0] + "\t" + folder.getValue() + "\t" + key[1] + "\n");
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(new File(directory, OUTPUT_FOLDERS_FILE_NAME))) {
+                Log.w(TAG, "Could not replace the output folders");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the output folders", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Writes the files collected in the in-app browser that aren't a project yet, for the
+     * activity's saved state, which can't hold a long list. Unlike every other write this runs
+     * on the calling thread, as the process may be killed soon after the state is saved.
+     */
+    public void saveCollected(List<Uri> uris) {
+        File file = new File(directory, COLLECTED_FILE_NAME);
+        if (uris.isEmpty()) {
+            file.delete();
+            return;
+        }
+        Writer out = null;
+        try {
+            directory.mkdirs();
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            for (Uri uri : uris) {
+                out.write(uri.toString());
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not store the collected files", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /** Reads back and deletes what {@link #saveCollected} wrote; empty if there is nothing. */
+    public List<Uri> takeCollected() {
+        File file = new File(directory, COLLECTED_FILE_NAME);
+        if (!file.isFile()) {
+            return new ArrayList<>();
+        }
+        List<Uri> uris = readUris(file, Integer.MAX_VALUE);
+        file.delete();
+        return uris;
+    }
+
+    /** Reads the first {@code count} URIs of a project's file. */
+    List<Uri> readUris(int fileId, int count) {
+        return readUris(uriFile(fileId), count);
+    }
+
+    private static List<Uri> readUris(File file, int count) {
+        List<Uri> uris = new ArrayList<>(Math.min(count, 1024));
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+            String line;
+            while (uris.size() < count && (line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    uris.add(Uri.parse(line));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read stored URIs", e);
+        } finally {
+            closeQuietly(reader);
+        }
+        return uris;
+    }
+
+    private void forget(ProjectEntry entry) {
+        for (Uri uri : entry.getUris()) {
+            if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+                try {
+                    resolver.releasePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                } catch (SecurityException e) {
+                    // No persisted grant to give back.
+                }
+            }
+        }
+        uriFile(entry.getFileId()).delete();
+    }
+
+    private void takeReadPermission(Uri uri) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            return;
+        }
+        try {
+            resolver.takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            // Not persistable (or over the grant limit); usable until the process dies.
+        }
+    }
+
+    // Rewrites the index through a temporary file, so a crash mid-write keeps the old one.
+    private void writeIndex() {
+        directory.mkdirs();
+        File temp = new File(directory, INDEX_FILE_NAME + ".tmp");
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8);
+            for (Map.Entry<String, ProjectEntry> project : indexed.entrySet()) {
+                ProjectEntry entry = project.getValue();
+                out.write(entry.getFileId() + "\t" + entry.size() + "\t" + project.getKey() + "\n");
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(new File(directory, INDEX_FILE_NAME))) {
+                Log.w(TAG, "Could not replace the project index");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the project index", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private File uriFile(int fileId) {
+        return new File(directory, fileId + URI_FILE_SUFFIX);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.txtify.app;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming filter that decodes bytes in a source charset and re-encodes them as UTF-8.
+ * Memory use is bounded by the two fixed-size intermediate buffers, whatever the input size.
+ * Malformed input is replaced rather than rejected, like InputStreamReader does.
+ */
+public class TranscodingOutputStream extends FilterOutputStream {
+
+    private static final int CHAR_BUFFER_SIZE = 8 * 1024;
+
+    private final CharsetDecoder decoder;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer pendingInput;
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private final ByteBuffer encoded;
+
+    public TranscodingOutputStream(OutputStream out, Charset sourceCharset) {
+        super(out);
+        this.decoder = sourceCharset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Holds the few bytes of a multi-byte sequence that was split across two writes.
+        this.pendingInput = ByteBuffer.allocate(16);
+        this.encoded = ByteBuffer.allocate((int) (CHAR_BUFFER_SIZE * encoder.maxBytesPerChar()));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer input = ByteBuffer.wrap(b, off, len);
+
+        // Complete a sequence left over from the previous write one byte at a time.
+        while (pendingInput.position() > 0 && input.hasRemaining()) {
+            pendingInput.put(input.get());
+            pendingInput.flip();
+            decode(pendingInput, false);
+            pendingInput.compact();
+        }
+
+        decode(input, false);
+        if (input.hasRemaining()) {
+            pendingInput.put(input);
+        }
+    }
+
+    /**
+     * Flushes the decoder and encoder state. Does not close the wrapped stream.
+     */
+    public void finish() throws IOException {
+        pendingInput.flip();
+        decode(pendingInput, true);
+        pendingInput.clear();
+        while (decoder.flush(chars) == CoderResult.OVERFLOW) {
+            encodeChars(false);
+        }
+        encodeChars(true);
+        while (encoder.flush(encoded) == CoderResult.OVERFLOW) {
+            drainEncoded();
+        }
+        drainEncoded();
+        out.flush();
+    }
+
+    private void decode(ByteBuffer input, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = decoder.decode(input, chars, endOfInput);
+            if (result.isOverflow()) {
+                encodeChars(false);
+            } else {
+                encodeChars(false);
+                return;
+            }
+        }
+    }
+
+    private void encodeChars(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, encoded, endOfInput);
+            drainEncoded();
+            if (!result.isOverflow()) {
+                break;
+            }
+        }
+        chars.compact();
+    }
+
+    private void drainEncoded() throws IOException {
+        if (encoded.position() > 0) {
+            out.write(encoded.array(), 0, encoded.position());
+            encoded.clear();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.txtify.app;
+
+/**
+ * Display name, size, MIME type and modification time of a source URI, resolved once and
+ * memoised on its {@link ProjectEntry}. Unknown sizes are -1 and unknown times are 0.
+ */
+public class UriMetadata {
+
+    private final String name;
+    private final long size;
+    private final String mimeType;
+    private final long lastModified;
+
+    public UriMetadata(String name, long size, String mimeType, long lastModified) {
+        this.name = name;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.lastModified = lastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,119 @@
+package com.txtify.app;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.webkit.MimeTypeMap;
+import java.io.File;
+import java.util.List;
+
+/**
+ * Resolves name, size, MIME type and modification time for every URI of a project, off the
+ * main thread, and memoises the results on the {@link ProjectEntry}.
+ *
+ * SAF has no multi-document query, so each content URI still needs one query, but it fetches
+ * all columns at once and batches of URIs are resolved in parallel. file:// URIs are resolved
+ * from the filesystem without any IPC.
+ */
+public class UriMetadataResolver {
+
+    private static final int BATCH_SIZE = 64;
+
+    private final Context context;
+    private final ContentResolver resolver;
+    private final int workerCount;
+
+    public UriMetadataResolver(Context context, int workerCount) {
+        this.context = context.getApplicationContext();
+        this.resolver = this.context.getContentResolver();
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Resolves every URI of {@code entry} that has no memoised metadata yet. Blocks; call it
+     * from a background thread.
+     */
+    public void resolveMissing(final ProjectEntry entry) {
+        final List<Uri> missing = entry.getUrisWithoutMetadata();
+        if (missing.isEmpty()) return;
+
+        int batchCount = (missing.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        new ConversionScheduler(workerCount).run(batchCount, new ConversionScheduler.Job() {
+				@Override
+				public long run(int batch, ConversionScheduler.Turn turn) {
+					int end = Math.min(missing.size(), (batch + 1) * BATCH_SIZE);
+					for (int i = batch * BATCH_SIZE; i < end; i++) {
+						Uri uri = missing.get(i);
+						entry.putMetadata(uri, resolve(uri));
+					}
+					return 0;
+				}
+			});
+    }
+
+    public UriMetadata resolve(Uri uri) {
+        String name = null;
+        long size = -1;
+        String mimeType = null;
+        long lastModified = 0;
+
+        if ("content".equals(uri.getScheme())) {
+            boolean isDocument = DocumentsContract.isDocumentUri(context, uri);
+            String[] projection = isDocument
+                ? new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_LAST_MODIFIED}
+                : new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+            Cursor cursor = null;
+            try {
+                cursor = resolver.query(uri, projection, null, null, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    name = cursor.getString(0);
+                    if (!cursor.isNull(1)) size = cursor.getLong(1);
+                    if (isDocument) {
+                        mimeType = cursor.getString(2);
+                        if (!cursor.isNull(3)) lastModified = cursor.getLong(3);
+                    }
+                }
+            } catch (Exception e) {
+                // Fall through to the path-based name below.
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            if (mimeType == null) {
+                try {
+                    mimeType = resolver.getType(uri);
+                } catch (Exception e) {
+                    // Unknown type.
+                }
+            }
+        } else if ("file".equals(uri.getScheme())) {
+            File file = new File(uri.getPath());
+            name = file.getName();
+            size = file.length();
+            lastModified = file.lastModified();
+            mimeType = getMimeTypeFromName(name);
+        }
+
+        if (name == null || name.isEmpty()) {
+            name = getNameFromPath(uri);
+        }
+        return new UriMetadata(name, size, mimeType, lastModified);
+    }
+
+    private static String getNameFromPath(Uri uri) {
+        String result = uri.getPath();
+        if (result == null) return "unknown_file";
+        int cut = result.lastIndexOf('/');
+        return (cut != -1) ? result.substring(cut + 1) : result;
+    }
+
+    private static String getMimeTypeFromName(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) return null;
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(name.substring(dot + 1).toLowerCase());
+    }
+}
@@ -0,0 +1,362 @@
+package com.txtify.app;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Random-access ZIP reader that works from the central directory at the end of the archive.
+ *
+ * Listing an archive only reads the central directory, and opening an entry seeks straight
+ * to its local header, so nothing outside the selected entries is ever decompressed.
+ * All reads are positional, which keeps entry streams independent of each other.
+ */
+public class ZipArchiveReader implements Closeable {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private final FileChannel channel;
+    private final Closeable owner;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByName;
+
+    public ZipArchiveReader(FileChannel channel) throws IOException {
+        this(channel, null);
+    }
+
+    private ZipArchiveReader(FileChannel channel, Closeable owner) throws IOException {
+        this.channel = channel;
+        this.owner = owner;
+        this.entries = Collections.unmodifiableList(readCentralDirectory());
+        this.entriesByName = new HashMap<>(entries.size() * 2);
+        for (Entry entry : entries) {
+            entriesByName.put(entry.getName(), entry);
+        }
+    }
+
+    /**
+     * Opens a content or file URI through a seekable file descriptor. Throws if the provider
+     * only offers a pipe or the data isn't a readable ZIP; callers fall back to ZipInputStream.
+     */
+    public static ZipArchiveReader open(ContentResolver resolver, Uri uri) throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            throw new IOException("No file descriptor for " + uri);
+        }
+        try {
+            FileChannel channel = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+            return new ZipArchiveReader(channel, pfd);
+        } catch (IOException | RuntimeException e) {
+            pfd.close();
+            throw e;
+        }
+    }
+
+    /** Entries in central-directory order, which is normally the order they were written. */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    /**
+     * Returns a stream of the entry's uncompressed data, read straight from its local header.
+     * The stream only touches the archive through positional reads.
+     */
+    public InputStream getInputStream(Entry entry) throws IOException {
+        ByteBuffer header = readFully(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Bad local header for " + entry.getName());
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        long dataStart = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+
+        InputStream raw = new ChannelRangeInputStream(channel, dataStart, entry.compressedSize);
+        if (entry.method == METHOD_STORED) {
+            return raw;
+        } else if (entry.method == METHOD_DEFLATED) {
+            return new EntryInflaterInputStream(raw, new Inflater(true));
+        }
+        throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.getName());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (owner != null) {
+                owner.close();
+            }
+        }
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < EOCD_MIN_SIZE) {
+            throw new ZipException("Not a ZIP archive");
+        }
+
+        // The end-of-central-directory record sits in the last 22 bytes plus an optional comment.
+        int tailSize = (int) Math.min(fileSize, EOCD_MIN_SIZE + MAX_COMMENT_SIZE);
+        long tailStart = fileSize - tailSize;
+        ByteBuffer tail = readFully(tailStart, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - EOCD_MIN_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("End of central directory not found");
+        }
+
+        long entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+        if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            long locatorPosition = tailStart + eocd - 20;
+            if (locatorPosition >= 0) {
+                ByteBuffer locator = readFully(locatorPosition, 20);
+                if (locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+                    ByteBuffer zip64 = readFully(locator.getLong(8), 56);
+                    if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                        throw new ZipException("Bad ZIP64 end of central directory");
+                    }
+                    entryCount = zip64.getLong(32);
+                    directorySize = zip64.getLong(40);
+                    directoryOffset = zip64.getLong(48);
+                }
+            }
+        }
+        if (directoryOffset + directorySize > fileSize) {
+            throw new ZipException("Central directory out of bounds");
+        }
+
+        List<Entry> result = new ArrayList<>((int) Math.min(entryCount, 1 << 20));
+        ChannelRangeInputStream in = new ChannelRangeInputStream(channel, directoryOffset, directorySize);
+        byte[] fixed = new byte[CENTRAL_HEADER_SIZE];
+        ByteBuffer header = ByteBuffer.wrap(fixed).order(ByteOrder.LITTLE_ENDIAN);
+        for (long i = 0; i < entryCount; i++) {
+            readFully(in, fixed, CENTRAL_HEADER_SIZE);
+            if (header.getInt(0) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Bad central directory header");
+            }
+            int method = header.getShort(10) & 0xFFFF;
+            long compressedSize = header.getInt(20) & 0xFFFFFFFFL;
+            long size = header.getInt(24) & 0xFFFFFFFFL;
+            int nameLength = header.getShort(28) & 0xFFFF;
+            int extraLength = header.getShort(30) & 0xFFFF;
+            int commentLength = header.getShort(32) & 0xFFFF;
+            long localHeaderOffset = header.getInt(42) & 0xFFFFFFFFL;
+
+            byte[] variable = new byte[nameLength + extraLength + commentLength];
+            readFully(in, variable, variable.length);
+            // ZipInputStream decodes names as UTF-8 as well, so listings match the old ones.
+            String name = new String(variable, 0, nameLength, StandardCharsets.UTF_8);
+
+            if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                ByteBuffer extra = ByteBuffer.wrap(variable, nameLength, extraLength).slice().order(ByteOrder.LITTLE_ENDIAN);
+                while (extra.remaining() >= 4) {
+                    int id = extra.getShort() & 0xFFFF;
+                    int length = extra.getShort() & 0xFFFF;
+                    int next = extra.position() + length;
+                    if (id == ZIP64_EXTRA_ID) {
+                        // Only the fields that overflowed are present, in this fixed order.
+                        if (size == 0xFFFFFFFFL && extra.remaining() >= 8) size = extra.getLong();
+                        if (compressedSize == 0xFFFFFFFFL && extra.remaining() >= 8) compressedSize = extra.getLong();
+                        if (localHeaderOffset == 0xFFFFFFFFL && extra.remaining() >= 8) localHeaderOffset = extra.getLong();
+                        break;
+                    }
+                    if (next > extra.limit()) break;
+                    extra.position(next);
+                }
+            }
+            result.add(new Entry(name, method, compressedSize, size, localHeaderOffset));
+        }
+        return result;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of ZIP archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("Truncated central directory");
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * A window of the archive read through positional channel reads, so any number of these
+     * can be open on the same channel, from any thread, without sharing a file pointer.
+     */
+    private static class ChannelRangeInputStream extends InputStream {
+        private static final int BUFFER_SIZE = 16 * 1024;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+        private long remaining;
+
+        ChannelRangeInputStream(FileChannel channel, long start, long length) {
+            this.channel = channel;
+            this.position = start;
+            this.remaining = length;
+            this.buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(BUFFER_SIZE, length)));
+            this.buffer.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + remaining);
+        }
+
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) return true;
+            if (remaining <= 0) return false;
+            buffer.clear();
+            if (remaining < buffer.capacity()) {
+                buffer.limit((int) remaining);
+            }
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                throw new EOFException("Unexpected end of ZIP entry");
+            }
+            position += read;
+            remaining -= read;
+            buffer.flip();
+            return true;
+        }
+    }
+
+    /**
+     * Raw-deflate stream for one entry. Feeds the inflater a trailing dummy byte at the end of
+     * the compressed data, as java.util.zip.ZipFile does, and releases the inflater on close.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+
+        EntryInflaterInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater, 8 * 1024);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZIP entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
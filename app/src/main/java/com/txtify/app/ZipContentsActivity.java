@@ -14,24 +14,21 @@ import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.InputStream;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.BitSet;
 
 public class ZipContentsActivity extends AppCompatActivity {
 
     public static final String EXTRA_ZIP_URI = "extra_zip_uri";
-    public static final String RESULT_EXTRA_SELECTED_ITEMS = "result_extra_selected_items";
+    public static final String EXTRA_MAX_DEPTH = "extra_max_depth";
+    // The listing itself stays in memory; only its token and the selection bitmap are returned.
+    public static final String RESULT_EXTRA_LISTING_TOKEN = "result_extra_listing_token";
+    public static final String RESULT_EXTRA_SELECTION = "result_extra_selection";
 
     private RecyclerView recyclerView;
     private ZipContentsAdapter adapter;
-    private List<ZipEntryItem> zipEntryItems = new ArrayList<>();
+    private ZipListing listing;
     private Uri zipUri;
+    private int maxDepth;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -52,14 +49,16 @@ public class ZipContentsActivity extends AppCompatActivity {
         convertButton.setOnClickListener(new View.OnClickListener() {
 				@Override
 				public void onClick(View v) {
-					ArrayList<ZipEntryItem> selectedItems = adapter.getIncludedItems();
-					if (selectedItems.isEmpty()) {
+					if (listing == null) return;
+					BitSet selection = listing.getSelection();
+					if (selection.isEmpty()) {
 						Toast.makeText(ZipContentsActivity.this, "No files are selected for conversion.", Toast.LENGTH_SHORT).show();
 						return;
 					}
 
 					Intent resultIntent = new Intent();
-					resultIntent.putExtra(RESULT_EXTRA_SELECTED_ITEMS, selectedItems);
+					resultIntent.putExtra(RESULT_EXTRA_LISTING_TOKEN, ZipListing.register(zipUri, listing));
+					resultIntent.putExtra(RESULT_EXTRA_SELECTION, selection.toLongArray());
 					resultIntent.setData(zipUri); 
 					setResult(RESULT_OK, resultIntent);
 					finish();
@@ -67,6 +66,7 @@ public class ZipContentsActivity extends AppCompatActivity {
 			});
 
         zipUri = getIntent().getParcelableExtra(EXTRA_ZIP_URI);
+        maxDepth = getIntent().getIntExtra(EXTRA_MAX_DEPTH, NestedArchives.DEFAULT_MAX_DEPTH);
         if (zipUri != null) {
             new ReadZipTask().execute(zipUri);
         } else {
@@ -84,70 +84,23 @@ public class ZipContentsActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    private class ReadZipTask extends AsyncTask<Uri, Void, List<ZipEntryItem>> {
+    private class ReadZipTask extends AsyncTask<Uri, Void, ZipListing> {
         @Override
-        protected List<ZipEntryItem> doInBackground(Uri... uris) {
-            List<ZipEntryItem> items = new ArrayList<>();
-            Uri uri = uris[0];
-            ZipInputStream zis = null;
-            try {
-                InputStream is = getContentResolver().openInputStream(uri);
-                zis = new ZipInputStream(is);
-                ZipEntry zipEntry;
-                while ((zipEntry = zis.getNextEntry()) != null) {
-                    if (!zipEntry.isDirectory()) {
-                        String fullPath = zipEntry.getName();
-                        String fileName = getFileNameFromPath(fullPath);
-                        String subfolder = getSubfolderFromPath(fullPath);
-                        items.add(new ZipEntryItem(fullPath, fileName, subfolder));
-                    }
-                    zis.closeEntry();
-                }
-            } catch (Exception e) {
-                return items;
-            } finally {
-                if (zis != null) {
-                    try { zis.close(); } catch (Exception e) {}
-                }
-            }
-
-            Collections.sort(items, new Comparator<ZipEntryItem>() {
-					@Override
-					public int compare(ZipEntryItem o1, ZipEntryItem o2) {
-						return o1.getFullPath().compareTo(o2.getFullPath());
-					}
-				});
-
-            return items;
+        protected ZipListing doInBackground(Uri... uris) {
+            return ZipListing.load(getContentResolver(), uris[0], maxDepth);
         }
 
         @Override
-        protected void onPostExecute(List<ZipEntryItem> result) {
+        protected void onPostExecute(ZipListing result) {
             if (result.isEmpty()) {
                 Toast.makeText(ZipContentsActivity.this, "Could not read ZIP file or it is empty.", Toast.LENGTH_LONG).show();
                 finish();
                 return;
             }
-            zipEntryItems.clear();
-            zipEntryItems.addAll(result);
+            listing = result;
 
-            adapter = new ZipContentsAdapter(ZipContentsActivity.this, zipEntryItems);
+            adapter = new ZipContentsAdapter(ZipContentsActivity.this, listing);
             recyclerView.setAdapter(adapter);
         }
-
-        private String getFileNameFromPath(String path) {
-            if (path == null || path.isEmpty()) return "";
-            path = path.replace('\\', '/');
-            int lastSlash = path.lastIndexOf('/');
-            return (lastSlash >= 0) ? path.substring(lastSlash + 1) : path;
-        }
-
-        private String getSubfolderFromPath(String path) {
-            if (path == null || path.isEmpty()) return "";
-            path = path.replace('\\', '/');
-            int lastSlash = path.lastIndexOf('/');
-            return (lastSlash >= 0) ? path.substring(0, lastSlash + 1) : "";
-        }
     }
 }
-
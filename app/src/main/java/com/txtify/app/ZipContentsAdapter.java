@@ -8,17 +8,15 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
-import java.util.ArrayList;
-import java.util.List;
 
 public class ZipContentsAdapter extends RecyclerView.Adapter<ZipContentsAdapter.ViewHolder> {
 
-    private List<ZipEntryItem> zipEntries;
+    private ZipListing listing;
     private Context context;
 
-    public ZipContentsAdapter(Context context, List<ZipEntryItem> zipEntries) {
+    public ZipContentsAdapter(Context context, ZipListing listing) {
         this.context = context;
-        this.zipEntries = zipEntries;
+        this.listing = listing;
     }
 
     @NonNull
@@ -30,12 +28,10 @@ public class ZipContentsAdapter extends RecyclerView.Adapter<ZipContentsAdapter.
 
     @Override
     public void onBindViewHolder(@NonNull final ViewHolder holder, int position) {
-        final ZipEntryItem item = zipEntries.get(position);
+        holder.fileName.setText(listing.getFileName(position));
+        holder.fileSubfolder.setText(listing.getSubfolder(position));
 
-        holder.fileName.setText(item.getFileName());
-        holder.fileSubfolder.setText(item.getSubfolder());
-
-        if (item.isIncluded()) {
+        if (listing.isIncluded(position)) {
             holder.statusIcon.setImageResource(R.drawable.ic_file_included);
             holder.itemView.setAlpha(1.0f); // Fully opaque
         } else {
@@ -46,28 +42,19 @@ public class ZipContentsAdapter extends RecyclerView.Adapter<ZipContentsAdapter.
         holder.itemView.setOnClickListener(new View.OnClickListener() {
 				@Override
 				public void onClick(View v) {
+					int adapterPosition = holder.getAdapterPosition();
+					if (adapterPosition == RecyclerView.NO_POSITION) return;
 					// Toggle the inclusion state
-					item.setIncluded(!item.isIncluded());
+					listing.setIncluded(adapterPosition, !listing.isIncluded(adapterPosition));
 					// Notify the adapter that this specific item has changed, so it redraws itself
-					notifyItemChanged(holder.getAdapterPosition());
+					notifyItemChanged(adapterPosition);
 				}
 			});
     }
 
     @Override
     public int getItemCount() {
-        return zipEntries.size();
-    }
-
-    // A helper method to get only the files that are still marked for inclusion
-    public ArrayList<ZipEntryItem> getIncludedItems() {
-        ArrayList<ZipEntryItem> included = new ArrayList<>();
-        for (ZipEntryItem item : zipEntries) {
-            if (item.isIncluded()) {
-                included.add(item);
-            }
-        }
-        return included;
+        return listing.size();
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
@@ -83,4 +70,3 @@ public class ZipContentsAdapter extends RecyclerView.Adapter<ZipContentsAdapter.
         }
     }
 }
-
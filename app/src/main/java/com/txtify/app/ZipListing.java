@@ -0,0 +1,244 @@
+package com.txtify.app;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compact, sorted listing of the files in a ZIP archive.
+ *
+ * All paths share one UTF-8 byte pool addressed by an offset array, and the include flags are a
+ * BitSet, so a listing costs a few bytes per entry on top of the path text. File name and
+ * subfolder are derived on demand. Listings are handed between activities through
+ * {@link #register(Uri, ZipListing)} tokens rather than serialised into the Intent.
+ *
+ * Files inside nested archives are listed under {@code outer.zip!/inner/path} (see
+ * {@link NestedArchives}) and are selectable like any other entry.
+ */
+public class ZipListing {
+
+    private static final int MAX_REGISTERED = 4;
+    // Tokens outlive the process in saved jobs, so they are random rather than counted from 1
+    // again after a restart, where they would name some other archive's listing.
+    private static final Random TOKENS = new Random();
+    private static final Map<Long, Registration> REGISTERED = new LinkedHashMap<Long, Registration>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Registration> eldest) {
+            return size() > MAX_REGISTERED;
+        }
+    };
+
+    // A registered listing and the archive it was read from.
+    private static class Registration {
+        final Uri zipUri;
+        final ZipListing listing;
+
+        Registration(Uri zipUri, ZipListing listing) {
+            this.zipUri = zipUri;
+            this.listing = listing;
+        }
+    }
+
+    private final byte[] pathPool;
+    private final int[] pathOffsets;
+    private final BitSet included;
+
+    private ZipListing(byte[] pathPool, int[] pathOffsets) {
+        this.pathPool = pathPool;
+        this.pathOffsets = pathOffsets;
+        this.included = new BitSet(size());
+        this.included.set(0, size()); // All files are included by default
+    }
+
+    /**
+     * Builds a listing from full entry paths. Paths are sorted the same way the old
+     * ZipEntryItem list was, so indices are stable for a given archive.
+     */
+    public static ZipListing fromPaths(List<String> paths) {
+        List<String> sorted = new ArrayList<>(paths);
+        Collections.sort(sorted);
+
+        byte[][] encoded = new byte[sorted.size()][];
+        int total = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = sorted.get(i).getBytes(StandardCharsets.UTF_8);
+            total += encoded[i].length;
+        }
+
+        byte[] pool = new byte[total];
+        int[] offsets = new int[encoded.length + 1];
+        int position = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            offsets[i] = position;
+            System.arraycopy(encoded[i], 0, pool, position, encoded[i].length);
+            position += encoded[i].length;
+        }
+        offsets[encoded.length] = position;
+        return new ZipListing(pool, offsets);
+    }
+
+    /**
+     * Lists the files of an archive, from the central directory when the URI is seekable and
+     * by scanning the stream otherwise, descending up to {@code maxDepth} levels into nested
+     * archives. Returns an empty listing if nothing could be read.
+     */
+    public static ZipListing load(ContentResolver resolver, Uri zipUri, int maxDepth) {
+        PathCollector collector = new PathCollector();
+
+        ZipArchiveReader archive = null;
+        try {
+            archive = ZipArchiveReader.open(resolver, zipUri);
+            for (ZipArchiveReader.Entry entry : archive.getEntries()) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (maxDepth <= 0 || !NestedArchives.isArchiveName(entry.getName())) {
+                    collector.paths.add(entry.getName());
+                    continue;
+                }
+                int listedBefore = collector.paths.size();
+                InputStream in = null;
+                try {
+                    in = archive.getInputStream(entry);
+                    NestedArchives.visitEntry(entry.getName(), in, "", maxDepth, collector);
+                } catch (IOException e) {
+                    // A broken inner archive is listed as the plain file it is.
+                    collector.paths.subList(listedBefore, collector.paths.size()).clear();
+                    collector.paths.add(entry.getName());
+                } finally {
+                    if (in != null) {
+                        try { in.close(); } catch (Exception e) {}
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Not seekable (e.g. a pipe) or not parseable: fall back to inflating the whole stream.
+            collector.paths.clear();
+        } finally {
+            if (archive != null) {
+                try { archive.close(); } catch (Exception e) {}
+            }
+        }
+
+        if (collector.paths.isEmpty()) {
+            InputStream is = null;
+            try {
+                is = resolver.openInputStream(zipUri);
+                NestedArchives.walk(is, "", maxDepth, collector);
+            } catch (Exception e) {
+                // Keep whatever was read before the failure.
+            } finally {
+                if (is != null) {
+                    try { is.close(); } catch (Exception e) {}
+                }
+            }
+        }
+        return fromPaths(collector.paths);
+    }
+
+    /** Registers the listing of {@code zipUri}; the token is never negative. */
+    public static long register(Uri zipUri, ZipListing listing) {
+        synchronized (REGISTERED) {
+            long token;
+            do {
+                token = TOKENS.nextLong() & Long.MAX_VALUE;
+            } while (REGISTERED.containsKey(token));
+            REGISTERED.put(token, new Registration(zipUri, listing));
+            return token;
+        }
+    }
+
+    /**
+     * Returns the listing registered for {@code zipUri}, or null if it is gone (e.g. the process
+     * was restarted) or the token belongs to another archive, in which case the caller reloads
+     * it from the archive.
+     */
+    public static ZipListing lookup(long token, Uri zipUri) {
+        synchronized (REGISTERED) {
+            Registration registration = REGISTERED.get(token);
+            return (registration != null && registration.zipUri.equals(zipUri)) ? registration.listing : null;
+        }
+    }
+
+    /** Drops the listing, unless the token now belongs to another archive's listing. */
+    public static void release(long token, Uri zipUri) {
+        synchronized (REGISTERED) {
+            Registration registration = REGISTERED.get(token);
+            if (registration != null && registration.zipUri.equals(zipUri)) {
+                REGISTERED.remove(token);
+            }
+        }
+    }
+
+    public int size() {
+        return pathOffsets.length - 1;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public String getFullPath(int index) {
+        int start = pathOffsets[index];
+        return new String(pathPool, start, pathOffsets[index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    public String getFileName(int index) {
+        String path = getFullPath(index).replace('\\', '/');
+        int lastSlash = path.lastIndexOf('/');
+        return (lastSlash >= 0) ? path.substring(lastSlash + 1) : path;
+    }
+
+    public String getSubfolder(int index) {
+        String path = getFullPath(index).replace('\\', '/');
+        int lastSlash = path.lastIndexOf('/');
+        return (lastSlash >= 0) ? path.substring(0, lastSlash + 1) : "";
+    }
+
+    public boolean isIncluded(int index) {
+        return included.get(index);
+    }
+
+    public void setIncluded(int index, boolean value) {
+        included.set(index, value);
+    }
+
+    /** A copy of the include flags, small enough to travel in an Intent as a long[]. */
+    public BitSet getSelection() {
+        return (BitSet) included.clone();
+    }
+
+    private static class PathCollector implements NestedArchives.Visitor {
+        final List<String> paths = new ArrayList<>();
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public boolean enterArchive(String archivePath) {
+            return true;
+        }
+
+        @Override
+        public void visitFile(String path, InputStream in) {
+            paths.add(path);
+        }
+
+        @Override
+        public void onEmptyArchive(String archivePath) {
+            // Not actually a ZIP; list it as a plain file.
+            paths.add(archivePath);
+        }
+    }
+}
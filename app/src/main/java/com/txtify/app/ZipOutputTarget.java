@@ -0,0 +1,109 @@
+package com.txtify.app;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams converted files into one ZIP archive, so the provider only creates and writes a
+ * single document however many files are converted.
+ *
+ * Entries are always deflated. ZipOutputStream needs the size and CRC of a STORED entry before
+ * its data, which a streaming conversion doesn't know, so "store" is compression level 0: the
+ * bytes are copied as-is inside deflate's stored blocks.
+ */
+public class ZipOutputTarget implements OutputTarget {
+
+    public static final int LEVEL_STORE = Deflater.NO_COMPRESSION;
+    public static final int LEVEL_FAST = Deflater.BEST_SPEED;
+    public static final int LEVEL_DEFAULT = Deflater.DEFAULT_COMPRESSION;
+    public static final int LEVEL_BEST = Deflater.BEST_COMPRESSION;
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final ZipOutputStream zip;
+    private final Set<String> entryNames = new HashSet<>();
+    private boolean inFile;
+
+    public ZipOutputTarget(OutputStream out, int level) {
+        this.zip = new ZipOutputStream(new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE));
+        this.zip.setLevel(level);
+    }
+
+    @Override
+    public OutputStream beginFile(String path) throws IOException {
+        if (inFile) {
+            endFile();
+        }
+        zip.putNextEntry(new ZipEntry(uniqueName(path)));
+        inFile = true;
+        return new EntryOutputView();
+    }
+
+    @Override
+    public void endFile() throws IOException {
+        if (!inFile) {
+            return;
+        }
+        inFile = false;
+        zip.closeEntry();
+    }
+
+    /** Writes the central directory and closes the underlying stream. */
+    @Override
+    public void close() throws IOException {
+        try {
+            endFile();
+            zip.finish();
+        } finally {
+            zip.close();
+        }
+    }
+
+    // ZipOutputStream rejects duplicate entry names, so clashes get the same "-N" suffix
+    // that copies in the save folder get.
+    private String uniqueName(String path) {
+        if (entryNames.add(path)) {
+            return path;
+        }
+        int dot = path.lastIndexOf('.');
+        String base = (dot >= 0) ? path.substring(0, dot) : path;
+        String extension = (dot >= 0) ? path.substring(dot) : "";
+        int copy = 1;
+        String candidate;
+        do {
+            candidate = base + "-" + (copy++) + extension;
+        } while (!entryNames.add(candidate));
+        return candidate;
+    }
+
+    // What the conversion engine writes one entry into. Closing it must not close the archive.
+    private class EntryOutputView extends OutputStream {
+        private final byte[] singleByte = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            // DeflaterOutputStream allocates for every single-byte write.
+            singleByte[0] = (byte) b;
+            zip.write(singleByte, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            zip.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.txtify.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/** The detection rules in the order {@link CharsetDetector} applies them, and what they cost. */
+public class CharsetDetectorTest {
+
+    private static final Charset SHIFT_JIS = Charset.forName("Shift_JIS");
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    @Test
+    public void byteOrderMarkWinsAndIsSkipped() throws IOException {
+        InputStream in = ContentSniffer.markable(new ByteArrayInputStream(concat(bytes(0xEF, 0xBB, 0xBF), "hi".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(StandardCharsets.UTF_8, CharsetDetector.detect(in));
+        assertEquals('h', in.read());
+
+        in = ContentSniffer.markable(new ByteArrayInputStream(concat(bytes(0xFF, 0xFE), "hi".getBytes(StandardCharsets.UTF_16LE))));
+        assertEquals(StandardCharsets.UTF_16LE, CharsetDetector.detect(in));
+        assertEquals('h', in.read());
+
+        assertEquals(StandardCharsets.UTF_16BE, detect(concat(bytes(0xFE, 0xFF), "hi".getBytes(StandardCharsets.UTF_16BE))));
+    }
+
+    @Test
+    public void utf32MarkIsNotTakenForUtf16() {
+        assertEquals(Charset.forName("UTF-32LE"), detect(concat(bytes(0xFF, 0xFE, 0, 0), "hi".getBytes(Charset.forName("UTF-32LE")))));
+        assertEquals(Charset.forName("UTF-32BE"), detect(concat(bytes(0, 0, 0xFE, 0xFF), "hi".getBytes(Charset.forName("UTF-32BE")))));
+    }
+
+    @Test
+    public void utf16WithoutMarkIsRecognisedByItsNuls() {
+        String text = "public class Main { // 日本語 }\n";
+        assertEquals(StandardCharsets.UTF_16LE, detect(text.getBytes(StandardCharsets.UTF_16LE)));
+        assertEquals(StandardCharsets.UTF_16BE, detect(text.getBytes(StandardCharsets.UTF_16BE)));
+        // Mostly non-Latin text has too few NULs to tell, which is left to the later rules.
+        assertNull(CharsetDetector.guessUtf16("日本語のテキスト".getBytes(StandardCharsets.UTF_16LE), 16));
+    }
+
+    @Test
+    public void validUtf8AndPlainAsciiAreUtf8() {
+        assertEquals(StandardCharsets.UTF_8, detect("plain ascii\n".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(StandardCharsets.UTF_8, detect("naïve café, 日本語, 😀\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void utf8CutOffByTheSampleIsStillUtf8() {
+        // Ten bytes per repetition, so the sample ends two bytes into a three-byte character.
+        byte[] text = repeat("日本語 ", 200).getBytes(StandardCharsets.UTF_8);
+        assertTrue(CharsetDetector.isValidUtf8(text, 100 * 10 + 2));
+        assertEquals(0, CharsetDetector.utf8SequenceLength(bytes(0xE6, 0x97), 0, 2));
+    }
+
+    @Test
+    public void malformedUtf8IsRejected() {
+        assertFalse(CharsetDetector.isValidUtf8(bytes(0xC0, 0xAF), 2)); // Overlong encoding
+        assertFalse(CharsetDetector.isValidUtf8(bytes('a', 0xE6, 'b', 'c'), 4)); // Missing continuation
+        assertFalse(CharsetDetector.isValidUtf8(bytes(0xF5, 0x80, 0x80, 0x80), 4)); // Past U+10FFFF
+    }
+
+    @Test
+    public void japaneseLegacyTextIsShiftJis() {
+        String text = repeat("これは日本語のテキストです。ｶﾀｶﾅも少し。 Some ASCII too.\r\n", 2000);
+        assertEquals(SHIFT_JIS, detect(text.getBytes(SHIFT_JIS)));
+    }
+
+    @Test
+    public void accentedLatinLegacyTextIsWindows1252() {
+        String text = repeat("Café résumé, naïve “quotes” — 50 € Straße Ærø\r\n", 2000);
+        assertEquals(WINDOWS_1252, detect(text.getBytes(WINDOWS_1252)));
+        // Isolated high bytes that happen to form a valid Shift_JIS pair aren't enough.
+        assertFalse(CharsetDetector.looksLikeShiftJis("à la carte, déjà vu".getBytes(WINDOWS_1252), 19));
+    }
+
+    @Test
+    public void detectionCostIsBoundedBySample() throws IOException {
+        // However large the file, only the sample is read, so the cost per MB of source falls
+        // with file size.
+        byte[] source = legacyLatinText();
+        CountingInputStream counted = new CountingInputStream(new ByteArrayInputStream(source));
+        assertEquals(WINDOWS_1252, CharsetDetector.detect(ContentSniffer.markable(counted)));
+        assertTrue("Read " + counted.count + " of " + source.length + " bytes", counted.count <= 2 * CharsetDetector.SAMPLE_SIZE);
+    }
+
+    @Test
+    @Ignore("Benchmark; run on demand")
+    public void detectionThroughput() {
+        // The rate is per MB of sample, for the slowest (last) rule.
+        byte[] source = legacyLatinText();
+        int rounds = 20000;
+        long sampleBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sampleBytes += CharsetDetector.SAMPLE_SIZE;
+            assertEquals(WINDOWS_1252, CharsetDetector.detect(source, CharsetDetector.SAMPLE_SIZE));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.US, "CharsetDetector: %.1f us per file, %.0f MB/s of sample",
+            seconds * 1e6 / rounds, sampleBytes / (1024.0 * 1024.0) / seconds));
+    }
+
+    private static byte[] legacyLatinText() {
+        return repeat("Café résumé, naïve “quotes” — 50 €\r\n", 1 << 16).getBytes(WINDOWS_1252);
+    }
+
+    private static Charset detect(byte[] sample) {
+        return CharsetDetector.detect(sample, Math.min(sample.length, CharsetDetector.SAMPLE_SIZE));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] b = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            b[i] = (byte) values[i];
+        }
+        return b;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(a, 0, a.length);
+        out.write(b, 0, b.length);
+        return out.toByteArray();
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.txtify.app;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+/** Text in any of the encodings the app handles is never taken for binary, and binary is. */
+public class ContentSnifferTest {
+
+    private static final String CYRILLIC = "Съешь же ещё этих мягких французских булок, да выпей чаю.\r\n";
+    private static final String GREEK = "Ξεσκεπάζω την ψυχοφθόρα βδελυγμία. Γειά σου κόσμε!\r\n";
+
+    @Test
+    public void legacyCyrillicTextIsText() {
+        assertFalse(isBinary(repeat(CYRILLIC, 200), Charset.forName("windows-1251")));
+        assertFalse(isBinary(repeat(CYRILLIC, 200), Charset.forName("KOI8-R")));
+    }
+
+    @Test
+    public void legacyGreekAndHebrewTextIsText() {
+        assertFalse(isBinary(repeat(GREEK, 200), Charset.forName("windows-1253")));
+        assertFalse(isBinary(repeat("שלום עולם, זהו קובץ טקסט בעברית.\n", 200), Charset.forName("ISO-8859-8")));
+    }
+
+    @Test
+    public void unicodeAndOtherLegacyTextIsText() {
+        assertFalse(isBinary(repeat(CYRILLIC + GREEK, 100), StandardCharsets.UTF_8));
+        assertFalse(isBinary("\uFEFF" + repeat(GREEK, 100), StandardCharsets.UTF_16LE));
+        assertFalse(isBinary(repeat("これは日本語のテキストです。\r\n", 200), Charset.forName("Shift_JIS")));
+        assertFalse(isBinary(repeat("Café résumé, naïve “quotes”\r\n", 200), Charset.forName("windows-1252")));
+    }
+
+    @Test
+    public void dataWithNulsOrControlBytesIsBinary() {
+        byte[] random = new byte[ContentSniffer.SAMPLE_SIZE];
+        new Random(42).nextBytes(random);
+        assertTrue(ContentSniffer.isBinary(random, random.length));
+
+        // Even without a single NUL, random data has too many control bytes to be text.
+        for (int i = 0; i < random.length; i++) {
+            if (random[i] == 0) random[i] = 1;
+        }
+        assertTrue(ContentSniffer.isBinary(random, random.length));
+
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 0x0D, 'I', 'H', 'D', 'R'};
+        assertTrue(ContentSniffer.isBinary(png, png.length));
+    }
+
+    private static boolean isBinary(String text, Charset charset) {
+        byte[] bytes = text.getBytes(charset);
+        return ContentSniffer.isBinary(bytes, Math.min(bytes.length, ContentSniffer.SAMPLE_SIZE));
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.txtify.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Streams about 2 GB of generated text through {@link ConversionEngine} and checks every output
+ * byte. The build caps the test heap far below that, so the pipeline only passes if the pooled
+ * buffer and the streaming filters keep memory constant.
+ */
+public class ConversionEngineTest {
+
+    private static final long SOURCE_SIZE = 2L * 1024 * 1024 * 1024;
+
+    @Test
+    public void transcodesAndNormalizesTwoGigabytesInBoundedMemory() throws IOException {
+        // Accented letters are one byte in windows-1252 and two in UTF-8, and CRLF becomes LF.
+        String line = "0042 café naïve résumé ½ © text\r\n";
+        assertStreams(line, Charset.forName("windows-1252"), line.replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void normalizesTwoGigabytesOfUtf8InBoundedMemory() throws IOException {
+        // No transcoding; a lone CR ends a line, and multi-byte characters straddle buffers.
+        String line = "日本語 über € 12345\r";
+        assertStreams(line, StandardCharsets.UTF_8, line.replace("\r", "\n"));
+    }
+
+    private static void assertStreams(String sourceLine, Charset sourceCharset, String expectedLine) throws IOException {
+        assertTrue("Test heap must be smaller than the source", Runtime.getRuntime().maxMemory() < SOURCE_SIZE);
+
+        byte[] sourcePattern = sourceLine.getBytes(sourceCharset);
+        long lineCount = SOURCE_SIZE / sourcePattern.length;
+        RepeatingInputStream source = new RepeatingInputStream(sourcePattern, lineCount * sourcePattern.length);
+        CheckingOutputStream output = new CheckingOutputStream(expectedLine.getBytes(StandardCharsets.UTF_8));
+
+        long read = new ConversionEngine(new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 2)).convert(source, output, sourceCharset, true);
+
+        assertEquals(lineCount * sourcePattern.length, read);
+        assertEquals(lineCount * output.pattern.length, output.written);
+    }
+
+    // A source of {@code size} bytes made of one pattern repeated, generated as it is read.
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] pattern;
+        private final long size;
+        private long position;
+
+        RepeatingInputStream(byte[] pattern, long size) {
+            this.pattern = pattern;
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            return (position < size) ? pattern[(int) (position++ % pattern.length)] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= size) {
+                return -1;
+            }
+            int count = (int) Math.min(len, size - position);
+            for (int i = 0; i < count; ) {
+                int start = (int) (position % pattern.length);
+                int chunk = Math.min(count - i, pattern.length - start);
+                System.arraycopy(pattern, start, b, off + i, chunk);
+                i += chunk;
+                position += chunk;
+            }
+            return count;
+        }
+    }
+
+    // Compares everything written against one pattern repeated, without keeping any of it.
+    private static class CheckingOutputStream extends OutputStream {
+        final byte[] pattern;
+        long written;
+
+        CheckingOutputStream(byte[] pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public void write(int b) {
+            check((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                check(b[i]);
+            }
+        }
+
+        private void check(byte b) {
+            byte expected = pattern[(int) (written % pattern.length)];
+            if (b != expected) {
+                throw new AssertionError("Output differs at byte " + written);
+            }
+            written++;
+        }
+    }
+}